@@ -0,0 +1,42 @@
+package com.watermark.androidwm;
+
+import android.graphics.Bitmap;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.watermark.androidwm.core.BitPlaneEmbedder;
+import com.watermark.androidwm.core.BitPlaneLayout;
+import com.watermark.androidwm.core.ProgressMonitor;
+import com.watermark.androidwm.task.DetectionReturnValue;
+import com.watermark.androidwm.task.LSBDetectionTask;
+import com.watermark.androidwm.task.LSBWatermarkTask;
+import com.watermark.androidwm.utils.MetricsRecorder;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * The instrumented tests for the LSB detection task on real bitmaps.
+ *
+ * @author huangyz0918 (huangyz0918@gmail.com)
+ */
+@RunWith(AndroidJUnit4.class)
+public class LSBDetectionTaskTest {
+
+    @Test
+    public void testBitPlaneLargeImage() throws Exception {
+        // a 12MP background, larger than MAX_IMAGE_SIZE.
+        Bitmap background = Bitmap.createBitmap(4032, 3024, Bitmap.Config.ARGB_8888);
+        background.eraseColor(0xFF336699);
+        BitPlaneLayout layout = new BitPlaneLayout(2, BitPlaneLayout.CHANNELS_RGB);
+        Bitmap marked = LSBWatermarkTask.embedBitPlanePayload(background,
+                BitPlaneEmbedder.createPayload("12MP", false), null, layout,
+                MetricsRecorder.NONE, ProgressMonitor.NONE);
+
+        DetectionReturnValue value = LSBDetectionTask.detect(marked, layout,
+                MetricsRecorder.NONE, ProgressMonitor.NONE);
+        assertEquals("12MP", value.getWatermarkString());
+    }
+}
@@ -18,30 +18,31 @@ package com.watermark.androidwm;
 
 import android.content.Context;
 import android.graphics.Bitmap;
-import android.graphics.BitmapShader;
-import android.graphics.Canvas;
-import android.graphics.Matrix;
-import android.graphics.Paint;
 import android.graphics.Rect;
-import android.graphics.Shader;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import android.widget.ImageView;
 
 import com.watermark.androidwm.bean.AsyncTaskParams;
 import com.watermark.androidwm.bean.WatermarkImage;
-import com.watermark.androidwm.bean.WatermarkObject;
-import com.watermark.androidwm.bean.WatermarkPosition;
 import com.watermark.androidwm.bean.WatermarkText;
+import com.watermark.androidwm.core.BitPlaneLayout;
+import com.watermark.androidwm.core.ImagePayload;
+import com.watermark.androidwm.core.ProgressMonitor;
 import com.watermark.androidwm.listener.BuildFinishListener;
+import com.watermark.androidwm.listener.ProgressListener;
+import com.watermark.androidwm.listener.WatermarkMetricsListener.Stage;
 import com.watermark.androidwm.task.FDWatermarkTask;
 import com.watermark.androidwm.task.LSBWatermarkTask;
+import com.watermark.androidwm.task.WatermarkFuture;
 import com.watermark.androidwm.utils.BitmapUtils;
+import com.watermark.androidwm.utils.MetricsRecorder;
+import com.watermark.androidwm.utils.TransformBitmapCache;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-
-import static com.watermark.androidwm.utils.BitmapUtils.resizeBitmap;
-import static com.watermark.androidwm.utils.BitmapUtils.textAsBitmap;
+import java.util.concurrent.Executor;
 
 /**
  * The main class for watermark processing library.
@@ -54,10 +55,18 @@ public class Watermark {
     private Bitmap backgroundImg;
     private Context context;
     private Bitmap outputImage;
-    private Bitmap canvasBitmap;
-    private boolean isTileMode;
+    private Bitmap outputBitmap;
+    private Bitmap.Config outputConfig;
+    private WatermarkCompositor compositor;
     private boolean isInvisible;
     private boolean isLSB;
+    private BitPlaneLayout bitPlaneLayout;
+    private ImagePayload.Format imageFormat;
+    private MetricsRecorder metricsRecorder;
+    private Executor executor;
+    private Executor callbackExecutor;
+    private ProgressListener progressListener;
+    private final List<WatermarkFuture<Bitmap>> invisibleFutures = new ArrayList<>();
     private BuildFinishListener<Bitmap> buildFinishListener;
 
     /**
@@ -70,27 +79,46 @@ public class Watermark {
               @Nullable List<WatermarkImage> wmBitmapList,
               @Nullable WatermarkText inputText,
               @Nullable List<WatermarkText> wmTextList,
-              boolean isTileMode,
+              @NonNull WatermarkCompositor compositor,
               boolean isInvisible,
               boolean isLSB,
+              @Nullable BitPlaneLayout bitPlaneLayout,
+              @NonNull ImagePayload.Format imageFormat,
+              @Nullable Bitmap.Config outputConfig,
+              @Nullable Bitmap outputBitmap,
+              @NonNull MetricsRecorder metricsRecorder,
+              @NonNull Executor executor,
+              @NonNull Executor callbackExecutor,
+              @Nullable ProgressListener progressListener,
               @Nullable BuildFinishListener<Bitmap> buildFinishListener) {
 
         this.context = context;
-        this.isTileMode = isTileMode;
+        this.compositor = compositor;
         this.watermarkImg = watermarkImg;
         this.backgroundImg = backgroundImg;
         this.watermarkText = inputText;
         this.isInvisible = isInvisible;
         this.buildFinishListener = buildFinishListener;
         this.isLSB = isLSB;
+        this.bitPlaneLayout = bitPlaneLayout;
+        this.imageFormat = imageFormat;
+        this.outputConfig = outputConfig;
+        this.outputBitmap = outputBitmap;
+        this.metricsRecorder = metricsRecorder;
+        this.executor = executor;
+        this.callbackExecutor = callbackExecutor;
+        this.progressListener = progressListener;
 
-        canvasBitmap = backgroundImg;
         outputImage = backgroundImg;
 
-        createWatermarkImage(watermarkImg);
-        createWatermarkImages(wmBitmapList);
-        createWatermarkText(watermarkText);
-        createWatermarkTexts(wmTextList);
+        if (isInvisible) {
+            createWatermarkImage(watermarkImg);
+            createWatermarkImages(wmBitmapList);
+            createWatermarkText(watermarkText);
+            createWatermarkTexts(wmTextList);
+        } else {
+            createVisibleWatermarks(wmBitmapList, wmTextList);
+        }
     }
 
 
@@ -113,63 +141,27 @@ public class Watermark {
     }
 
     /**
-     * Creating the composite image with {@link WatermarkImage}.
+     * Creating the invisible watermark with {@link WatermarkImage}.
      * This method cannot be called outside.
      */
     private void createWatermarkImage(WatermarkImage watermarkImg) {
         if (watermarkImg != null && backgroundImg != null) {
-            if (isInvisible) {
-                Bitmap scaledWMBitmap = resizeBitmap(watermarkImg.getImage(), (float) watermarkImg.getSize(), backgroundImg);
-                if (isLSB) {
-                    new LSBWatermarkTask(buildFinishListener).execute(
-                            new AsyncTaskParams(context, backgroundImg, scaledWMBitmap)
-                    );
-                } else {
-                    new FDWatermarkTask(buildFinishListener).execute(
-                            new AsyncTaskParams(context, backgroundImg, scaledWMBitmap)
-                    );
-                }
-            } else {
-                Paint watermarkPaint = new Paint();
-                watermarkPaint.setAlpha(watermarkImg.getAlpha());
-                Bitmap newBitmap = Bitmap.createBitmap(backgroundImg.getWidth(),
-                        backgroundImg.getHeight(), backgroundImg.getConfig());
-                Canvas watermarkCanvas = new Canvas(newBitmap);
-                watermarkCanvas.drawBitmap(canvasBitmap, 0, 0, null);
-                Bitmap scaledWMBitmap = resizeBitmap(watermarkImg.getImage(), (float) watermarkImg.getSize(), backgroundImg);
-                scaledWMBitmap = adjustPhotoRotation(scaledWMBitmap,
-                        (int) watermarkImg.getPosition().getRotation());
-
-                if (isTileMode) {
-                    watermarkPaint.setShader(new BitmapShader(scaledWMBitmap,
-                            Shader.TileMode.REPEAT,
-                            Shader.TileMode.REPEAT));
-                    Rect bitmapShaderRect = watermarkCanvas.getClipBounds();
-                    watermarkCanvas.drawRect(bitmapShaderRect, watermarkPaint);
-                } else {
-                    drawObjWithAlignPosition(watermarkImg, scaledWMBitmap, watermarkCanvas, watermarkPaint);
-                }
-
-                canvasBitmap = newBitmap;
-                outputImage = newBitmap;
-            }
-
+            submitInvisible(new AsyncTaskParams(context, backgroundImg,
+                    scaleInvisibleWatermark(watermarkImg, backgroundImg)));
         }
-
     }
 
-    private void drawObjWithAlignPosition(WatermarkObject obj, Bitmap mark, Canvas canvas, Paint paint){
-        WatermarkPosition objOrg = obj.getOrigin();
-        double originX = mark.getWidth() * objOrg.getPositionX();
-        double originY = mark.getHeight() * objOrg.getPositionY();
-        WatermarkPosition objPos = obj.getPosition();
-        double posX = objPos.getPositionX() * backgroundImg.getWidth() - originX;
-        double posY = objPos.getPositionY() * backgroundImg.getHeight() - originY;
-        canvas.drawBitmap(mark, (float) posX, (float)posY, paint);
+    /**
+     * The invisible watermark image is scaled to its size relative
+     * to the background, and not rotated.
+     */
+    static Bitmap scaleInvisibleWatermark(@NonNull WatermarkImage watermarkImg, @NonNull Bitmap backgroundImg) {
+        return TransformBitmapCache.getInstance().get(watermarkImg.getImage(),
+                (float) watermarkImg.getSize(), backgroundImg.getWidth(), 0);
     }
 
     /**
-     * Creating the composite image with {@link WatermarkImage}.
+     * Creating the invisible watermark with {@link WatermarkImage}.
      * The input of the method is a set of {@link WatermarkImage}s.
      */
     private void createWatermarkImages(List<WatermarkImage> watermarkImages) {
@@ -181,54 +173,39 @@ public class Watermark {
     }
 
     /**
-     * Creating the composite image with  {@link WatermarkText}.
+     * Creating the invisible watermark with {@link WatermarkText}.
      * This method cannot be called outside.
      */
     private void createWatermarkText(WatermarkText watermarkText) {
-
         if (watermarkText != null && backgroundImg != null) {
-            if (isInvisible) {
-                if (isLSB) {
-                    new LSBWatermarkTask(buildFinishListener).execute(
-                            new AsyncTaskParams(context, backgroundImg, watermarkText)
-                    );
-                } else {
-                    new FDWatermarkTask(buildFinishListener).execute(
-                            new AsyncTaskParams(context, backgroundImg, watermarkText)
-                    );
-                }
-            } else {
-                Paint watermarkPaint = new Paint();
-                watermarkPaint.setAlpha(watermarkText.getTextAlpha());
-                Bitmap newBitmap = Bitmap.createBitmap(backgroundImg.getWidth(),
-                        backgroundImg.getHeight(), backgroundImg.getConfig());
-                Canvas watermarkCanvas = new Canvas(newBitmap);
-                watermarkCanvas.drawBitmap(canvasBitmap, 0, 0, null);
-                Bitmap scaledWMBitmap = textAsBitmap(context, watermarkText);
-                scaledWMBitmap = adjustPhotoRotation(scaledWMBitmap,
-                        (int) watermarkText.getPosition().getRotation());
-
-                if (isTileMode) {
-                    watermarkPaint.setShader(new BitmapShader(scaledWMBitmap,
-                            Shader.TileMode.REPEAT,
-                            Shader.TileMode.REPEAT));
-                    Rect bitmapShaderRect = watermarkCanvas.getClipBounds();
-                    watermarkCanvas.drawRect(bitmapShaderRect, watermarkPaint);
-                } else {
-                    drawObjWithAlignPosition(watermarkText, scaledWMBitmap, watermarkCanvas, watermarkPaint);
-                }
+            submitInvisible(new AsyncTaskParams(context, backgroundImg, watermarkText));
+        }
+    }
 
-                canvasBitmap = newBitmap;
-                outputImage = newBitmap;
+    /**
+     * Run an invisible watermark job on the executor, the result is
+     * delivered to the listener on the callback executor.
+     */
+    private void submitInvisible(final AsyncTaskParams params) {
+        // the jobs run concurrently, so only the first one renders into the
+        // output bitmap, the others get their own bitmaps from the pool.
+        params.setOutputConfig(outputConfig)
+                .setOutputBitmap(invisibleFutures.isEmpty() ? outputBitmap : null)
+                .setMetricsRecorder(metricsRecorder)
+                .setBitPlaneLayout(bitPlaneLayout)
+                .setImageFormat(imageFormat);
+        invisibleFutures.add(new WatermarkFuture<>(new WatermarkFuture.Job<Bitmap>() {
+            @Override
+            public Bitmap run(ProgressMonitor monitor) throws WatermarkException {
+                return isLSB ? LSBWatermarkTask.build(params, monitor) : FDWatermarkTask.build(params, monitor);
             }
-        }
+        }, buildFinishListener, progressListener, callbackExecutor).submit(executor));
     }
 
     /**
-     * Creating the composite image with {@link WatermarkText}.
+     * Creating the invisible watermark with {@link WatermarkText}.
      * The input of the method is a set of {@link WatermarkText}s.
      */
-
     private void createWatermarkTexts(List<WatermarkText> watermarkTexts) {
         if (watermarkTexts != null) {
             for (int i = 0; i < watermarkTexts.size(); i++) {
@@ -237,6 +214,23 @@ public class Watermark {
         }
     }
 
+    /**
+     * Creating the composite image with all the visible layers, the
+     * layers are collected first and drawn in a single pass by
+     * {@link WatermarkCompositor}.
+     */
+    private void createVisibleWatermarks(List<WatermarkImage> watermarkImages,
+                                         List<WatermarkText> watermarkTexts) {
+        if (backgroundImg != null) {
+            outputImage = compositor
+                    .addLayer(watermarkImg)
+                    .addLayers(watermarkImages)
+                    .addLayer(watermarkText)
+                    .addLayers(watermarkTexts)
+                    .compose(backgroundImg, outputBitmap);
+        }
+    }
+
     /**
      * The interface for getting the output image.
      *
@@ -246,13 +240,35 @@ public class Watermark {
         return outputImage;
     }
 
+    /**
+     * The handles of the invisible watermark jobs, one job for each
+     * watermark, they can be waited for or cancelled.
+     *
+     * @return the list of {@link WatermarkFuture}, empty for visible watermarks.
+     */
+    public List<WatermarkFuture<Bitmap>> getInvisibleFutures() {
+        return Collections.unmodifiableList(invisibleFutures);
+    }
+
+    /**
+     * The region of the output image which is covered by the visible
+     * watermarks, the pixels outside of it are not changed.
+     *
+     * @return {@link Rect} the dirty region, empty if nothing is drawn.
+     */
+    public Rect getDirtyRect() {
+        return compositor.getDirtyRect();
+    }
+
     /**
      * Save output png image to local.
      *
      * @param path the output path of image.
      */
     public void saveToLocalPng(String path) {
+        long startTime = metricsRecorder.start();
         BitmapUtils.saveAsPNG(outputImage, path, true);
+        metricsRecorder.end(Stage.ENCODE, startTime, 0, outputImage.getWidth(), outputImage.getHeight(), 0);
     }
 
     /**
@@ -265,19 +281,4 @@ public class Watermark {
         target.setImageBitmap(outputImage);
     }
 
-    /**
-     * Adjust the rotation of a bitmap.
-     *
-     * @param bitmap           input bitmap.
-     * @param orientationAngle the orientation angle.
-     * @return {@link Bitmap} the new bitmap.
-     */
-    private Bitmap adjustPhotoRotation(Bitmap bitmap, final int orientationAngle) {
-        Matrix matrix = new Matrix();
-        matrix.setRotate(orientationAngle,
-                (float) bitmap.getWidth() / 2, (float) bitmap.getHeight() / 2);
-        return Bitmap.createBitmap(bitmap,
-                0, 0, bitmap.getWidth(), bitmap.getHeight(), matrix, true);
-    }
-
 }
@@ -0,0 +1,189 @@
+/*
+ *    Copyright 2018 Yizheng Huang
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package com.watermark.androidwm;
+
+import android.graphics.Bitmap;
+import android.os.SystemClock;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import com.watermark.androidwm.bean.BatchResult;
+import com.watermark.androidwm.listener.BatchProcessListener;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import timber.log.Timber;
+
+import static com.watermark.androidwm.utils.Constant.ERROR_CREATE_FAILED;
+import static com.watermark.androidwm.utils.Constant.ERROR_NO_BACKGROUND;
+
+/**
+ * A batch processor which applies a {@link WatermarkTemplate} to a list of
+ * inputs in parallel. The inputs are loaded into bitmaps by a {@link Loader},
+ * so they can be decoded on the worker threads too.
+ * <p>
+ * At most {@code parallelism} items are processed at the same time, which
+ * also bounds the number of the backgrounds and outputs held in memory.
+ *
+ * @param <T> the type of the inputs, e.g. {@link android.net.Uri}.
+ * @author huangyz0918 (huangyz0918@gmail.com)
+ */
+public final class WatermarkBatch<T> {
+    private final WatermarkTemplate template;
+    private final Loader<T> loader;
+    private Executor executor;
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Load an input into a background bitmap, this is called on the
+     * worker threads. The returned bitmap will be recycled by the batch
+     * after the item is done, unless it is the output.
+     *
+     * @param <T> the type of the inputs.
+     */
+    public interface Loader<T> {
+        @Nullable
+        @WorkerThread
+        Bitmap load(T input) throws Exception;
+    }
+
+    public WatermarkBatch(@NonNull WatermarkTemplate template, @NonNull Loader<T> loader) {
+        this.template = template;
+        this.loader = loader;
+    }
+
+    /**
+     * Set the executor to run the batch on. If it is not set, a fixed
+     * thread pool is created for the batch, and shut down at the end.
+     *
+     * @return This {@link WatermarkBatch}.
+     */
+    public WatermarkBatch<T> setExecutor(@NonNull Executor executor) {
+        this.executor = executor;
+        return this;
+    }
+
+    /**
+     * Set the max number of items processed at the same time,
+     * the default is the number of the processors.
+     *
+     * @return This {@link WatermarkBatch}.
+     */
+    public WatermarkBatch<T> setParallelism(int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+        return this;
+    }
+
+    /**
+     * Start processing the inputs, this method returns immediately.
+     *
+     * @param inputs   the inputs, the list is copied.
+     * @param listener the listener of the items and the aggregate result.
+     */
+    public void process(@NonNull List<T> inputs, @NonNull BatchProcessListener<T> listener) {
+        new Run(new ArrayList<>(inputs), listener).start();
+    }
+
+    /**
+     * The state of a single {@link #process(List, BatchProcessListener)} call,
+     * every worker pulls the next index until all the inputs are taken.
+     */
+    private final class Run implements Runnable {
+        private final List<T> inputs;
+        private final BatchProcessListener<T> listener;
+        private final AtomicInteger nextIndex = new AtomicInteger();
+        private final AtomicInteger successCount = new AtomicInteger();
+        private final AtomicInteger remainingWorkers = new AtomicInteger();
+        private final long startTime = SystemClock.elapsedRealtime();
+        private ExecutorService ownExecutor;
+
+        Run(List<T> inputs, BatchProcessListener<T> listener) {
+            this.inputs = inputs;
+            this.listener = listener;
+        }
+
+        void start() {
+            int workers = Math.min(parallelism, inputs.size());
+            if (workers == 0) {
+                listener.onFinish(new BatchResult(0, 0, 0));
+                return;
+            }
+
+            Executor runExecutor = executor;
+            if (runExecutor == null) {
+                ownExecutor = Executors.newFixedThreadPool(workers);
+                runExecutor = ownExecutor;
+            }
+            remainingWorkers.set(workers);
+            for (int i = 0; i < workers; i++) {
+                runExecutor.execute(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            int index;
+            while ((index = nextIndex.getAndIncrement()) < inputs.size()) {
+                try {
+                    processItem(index, inputs.get(index));
+                } catch (RuntimeException e) {
+                    // keep the worker alive if the listener throws.
+                    Timber.e(e, "The batch listener failed on item %d", index);
+                }
+            }
+
+            if (remainingWorkers.decrementAndGet() == 0) {
+                if (ownExecutor != null) {
+                    ownExecutor.shutdown();
+                }
+                listener.onFinish(new BatchResult(inputs.size(), successCount.get(),
+                        SystemClock.elapsedRealtime() - startTime));
+            }
+        }
+
+        private void processItem(int index, T input) {
+            Bitmap background = null;
+            Bitmap output = null;
+            try {
+                background = loader.load(input);
+                if (background == null) {
+                    listener.onItemFailure(index, input, ERROR_NO_BACKGROUND);
+                    return;
+                }
+                output = template.apply(background);
+            } catch (Exception e) {
+                Timber.e(e, "Failed to create watermark for item %d", index);
+                listener.onItemFailure(index, input,
+                        e.getMessage() != null ? e.getMessage() : ERROR_CREATE_FAILED);
+                return;
+            } finally {
+                if (background != null && background != output) {
+                    background.recycle();
+                }
+            }
+
+            successCount.incrementAndGet();
+            listener.onItemSuccess(index, input, output);
+        }
+    }
+}
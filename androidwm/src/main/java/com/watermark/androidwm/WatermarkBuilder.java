@@ -20,19 +20,43 @@ import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.drawable.BitmapDrawable;
+import android.net.Uri;
 import androidx.annotation.DrawableRes;
+import androidx.annotation.FloatRange;
 import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
 import android.widget.ImageView;
 
+import com.watermark.androidwm.bean.AsyncTaskParams;
 import com.watermark.androidwm.bean.WatermarkImage;
 import com.watermark.androidwm.bean.WatermarkPosition;
 import com.watermark.androidwm.bean.WatermarkText;
+import com.watermark.androidwm.core.BitPlaneLayout;
+import com.watermark.androidwm.core.ImagePayload;
 import com.watermark.androidwm.listener.BuildFinishListener;
-
+import com.watermark.androidwm.listener.ProgressListener;
+import com.watermark.androidwm.listener.WatermarkMetricsListener;
+import com.watermark.androidwm.listener.WatermarkMetricsListener.Stage;
+import com.watermark.androidwm.task.FDWatermarkTask;
+import com.watermark.androidwm.task.LSBWatermarkTask;
+import com.watermark.androidwm.task.WatermarkFuture;
+import com.watermark.androidwm.utils.MetricsRecorder;
+import com.watermark.androidwm.utils.WatermarkExecutors;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Executor;
 
+import static com.watermark.androidwm.utils.BitmapUtils.decodeSampledBitmap;
 import static com.watermark.androidwm.utils.BitmapUtils.resizeBitmap;
+import static com.watermark.androidwm.utils.Constant.ERROR_NO_BACKGROUND;
+import static com.watermark.androidwm.utils.Constant.ERROR_NO_WATERMARKS;
+import static com.watermark.androidwm.utils.Constant.ERROR_OUTPUT_BITMAP;
+import static com.watermark.androidwm.utils.Constant.ERROR_SINGLE_INVISIBLE;
 import static com.watermark.androidwm.utils.Constant.MAX_IMAGE_SIZE;
 
 /**
@@ -44,9 +68,22 @@ public final class WatermarkBuilder {
     private Context context;
     private Bitmap backgroundImg;
     private boolean isTileMode = false;
+    private int tileSpacingX = 0;
+    private int tileSpacingY = 0;
+    private float tileStagger = 0;
+    private boolean isInPlace = false;
     private boolean isLSB = false;
+    private BitPlaneLayout bitPlaneLayout;
+    private ImagePayload.Format imageFormat = ImagePayload.Format.ARGB;
     private boolean resizeBackgroundImg;
+    private Bitmap.Config outputConfig;
+    private Bitmap outputBitmap;
     private BuildFinishListener<Bitmap> buildFinishListener = null;
+    private MetricsRecorder metricsRecorder = MetricsRecorder.NONE;
+    private Executor executor;
+    private Executor callbackExecutor;
+    private ProgressListener progressListener;
+    private final List<MetricsRecorder.Sample> samples = new ArrayList<>(2);
 
     private WatermarkImage watermarkImage;
     private WatermarkText watermarkText;
@@ -59,11 +96,7 @@ public final class WatermarkBuilder {
     private WatermarkBuilder(@NonNull Context context, @NonNull Bitmap backgroundImg, boolean resizeBackgroundImg) {
         this.context = context;
         this.resizeBackgroundImg = resizeBackgroundImg;
-        if (resizeBackgroundImg) {
-            this.backgroundImg = resizeBitmap(backgroundImg, MAX_IMAGE_SIZE);
-        } else {
-            this.backgroundImg = backgroundImg;
-        }
+        setBackground(backgroundImg);
     }
 
     private WatermarkBuilder(@NonNull Context context, @NonNull ImageView backgroundImageView, boolean resizeBackgroundImg) {
@@ -75,14 +108,10 @@ public final class WatermarkBuilder {
     private WatermarkBuilder(@NonNull Context context, @DrawableRes int backgroundDrawable, boolean resizeBackgroundImg) {
         this.context = context;
         this.resizeBackgroundImg = resizeBackgroundImg;
-        if (resizeBackgroundImg) {
-            this.backgroundImg = resizeBitmap(BitmapFactory.decodeResource(context.getResources(),
-                    backgroundDrawable), MAX_IMAGE_SIZE);
-        } else {
-            this.backgroundImg = BitmapFactory.decodeResource(context.getResources(),
-                    backgroundDrawable);
-        }
-
+        long startTime = System.nanoTime();
+        Bitmap decodedImg = BitmapFactory.decodeResource(context.getResources(), backgroundDrawable);
+        addDecodeSample(startTime, decodedImg);
+        setBackground(decodedImg);
     }
 
     private WatermarkBuilder(@NonNull Context context, @NonNull Bitmap backgroundImg) {
@@ -165,6 +194,131 @@ public final class WatermarkBuilder {
         return new WatermarkBuilder(context, backgroundDrawable, resizeBackgroundImg);
     }
 
+    /**
+     * to get an instance form class.
+     * Load the background image from a content {@link Uri}, the image is
+     * decoded close to the max image size instead of the full size.
+     *
+     * @return instance of {@link WatermarkBuilder}
+     * @throws IOException if the image cannot be read or decoded.
+     */
+    @SuppressWarnings("PMD")
+    public static WatermarkBuilder create(Context context, Uri backgroundUri) throws IOException {
+        return create(context, backgroundUri, true);
+    }
+
+    /**
+     * to get an instance form class.
+     * Load the background image from a content {@link Uri}.
+     * with background image resize option
+     *
+     * @return instance of {@link WatermarkBuilder}
+     * @throws IOException if the image cannot be read or decoded.
+     */
+    @SuppressWarnings("PMD")
+    public static WatermarkBuilder create(Context context, Uri backgroundUri, boolean resizeBackgroundImg)
+            throws IOException {
+        long startTime = System.nanoTime();
+        Bitmap decodedImg = decodeSampledBitmap(context, backgroundUri,
+                resizeBackgroundImg ? MAX_IMAGE_SIZE : 0);
+        return new WatermarkBuilder(context, decodedImg, resizeBackgroundImg)
+                .addDecodeSample(startTime, decodedImg);
+    }
+
+    /**
+     * to get an instance form class.
+     * Load the background image from a {@link File}, the image is
+     * decoded close to the max image size instead of the full size.
+     *
+     * @return instance of {@link WatermarkBuilder}
+     * @throws IOException if the image cannot be read or decoded.
+     */
+    @SuppressWarnings("PMD")
+    public static WatermarkBuilder create(Context context, File backgroundFile) throws IOException {
+        return create(context, backgroundFile, true);
+    }
+
+    /**
+     * to get an instance form class.
+     * Load the background image from a {@link File}.
+     * with background image resize option
+     *
+     * @return instance of {@link WatermarkBuilder}
+     * @throws IOException if the image cannot be read or decoded.
+     */
+    @SuppressWarnings("PMD")
+    public static WatermarkBuilder create(Context context, File backgroundFile, boolean resizeBackgroundImg)
+            throws IOException {
+        long startTime = System.nanoTime();
+        Bitmap decodedImg = decodeSampledBitmap(context, backgroundFile,
+                resizeBackgroundImg ? MAX_IMAGE_SIZE : 0);
+        return new WatermarkBuilder(context, decodedImg, resizeBackgroundImg)
+                .addDecodeSample(startTime, decodedImg);
+    }
+
+    /**
+     * to get an instance form class.
+     * Load the background image from a {@link FileDescriptor}, the image is
+     * decoded close to the max image size instead of the full size.
+     *
+     * @return instance of {@link WatermarkBuilder}
+     * @throws IOException if the image cannot be read or decoded.
+     */
+    @SuppressWarnings("PMD")
+    public static WatermarkBuilder create(Context context, FileDescriptor backgroundFd) throws IOException {
+        return create(context, backgroundFd, true);
+    }
+
+    /**
+     * to get an instance form class.
+     * Load the background image from a {@link FileDescriptor}.
+     * with background image resize option
+     *
+     * @return instance of {@link WatermarkBuilder}
+     * @throws IOException if the image cannot be read or decoded.
+     */
+    @SuppressWarnings("PMD")
+    public static WatermarkBuilder create(Context context, FileDescriptor backgroundFd, boolean resizeBackgroundImg)
+            throws IOException {
+        long startTime = System.nanoTime();
+        Bitmap decodedImg = decodeSampledBitmap(context, backgroundFd,
+                resizeBackgroundImg ? MAX_IMAGE_SIZE : 0);
+        return new WatermarkBuilder(context, decodedImg, resizeBackgroundImg)
+                .addDecodeSample(startTime, decodedImg);
+    }
+
+    /**
+     * to get an instance form class.
+     * Load the background image from an {@link InputStream}, the image is
+     * decoded close to the max image size instead of the full size.
+     * The stream is not closed.
+     *
+     * @return instance of {@link WatermarkBuilder}
+     * @throws IOException if the image cannot be read or decoded.
+     */
+    @SuppressWarnings("PMD")
+    public static WatermarkBuilder create(Context context, InputStream backgroundStream) throws IOException {
+        return create(context, backgroundStream, true);
+    }
+
+    /**
+     * to get an instance form class.
+     * Load the background image from an {@link InputStream}.
+     * with background image resize option
+     *
+     * @return instance of {@link WatermarkBuilder}
+     * @throws IOException if the image cannot be read or decoded.
+     */
+    @SuppressWarnings("PMD")
+    public static WatermarkBuilder create(Context context, InputStream backgroundStream, boolean resizeBackgroundImg)
+            throws IOException {
+        long startTime = System.nanoTime();
+        Bitmap decodedImg = decodeSampledBitmap(context, backgroundStream,
+                resizeBackgroundImg ? MAX_IMAGE_SIZE : 0);
+        return new WatermarkBuilder(context, decodedImg, resizeBackgroundImg)
+                .addDecodeSample(startTime, decodedImg);
+    }
+
     /**
      * Sets the {@link String} as the args
      * which ready for adding to a watermark.
@@ -280,27 +434,238 @@ public final class WatermarkBuilder {
         return this;
     }
 
+    /**
+     * Set the gaps between the tiles in tile mode, so the tiles
+     * don't need to be padded bitmaps.
+     *
+     * @param horizontal the horizontal gap in pixels.
+     * @param vertical   the vertical gap in pixels.
+     * @return This {@link WatermarkBuilder}.
+     */
+    public WatermarkBuilder setTileSpacing(int horizontal, int vertical) {
+        this.tileSpacingX = horizontal;
+        this.tileSpacingY = vertical;
+        return this;
+    }
+
+    /**
+     * Shift every second row of tiles in tile mode, like a brick wall.
+     *
+     * @param stagger the offset as a proportion of the tile width (with spacing),
+     *                0.5 means half a tile.
+     * @return This {@link WatermarkBuilder}.
+     */
+    public WatermarkBuilder setTileStagger(@FloatRange(from = 0, to = 1) float stagger) {
+        this.tileStagger = stagger;
+        return this;
+    }
+
+    /**
+     * Draw the visible watermarks directly into the resized background
+     * held by this builder, only the pixels under the watermarks are
+     * touched. Without this mode, the background will be copied into
+     * a new bitmap first.
+     * <p>
+     * Notice: the background of this builder is changed by the build,
+     * so it should only be built once in this mode. If the builder is
+     * created with the resizing disabled, the background is the caller's
+     * own {@link Bitmap} (or the bitmap of the {@link ImageView}): when it
+     * is mutable and of the output config, the watermarks are drawn into
+     * it, and the same object is returned as the output, so its original
+     * pixels are lost.
+     *
+     * @return This {@link WatermarkBuilder}.
+     */
+    public WatermarkBuilder setInPlace(boolean inPlace) {
+        this.isInPlace = inPlace;
+        return this;
+    }
+
+    /**
+     * Set the config of the output image, e.g. {@link Bitmap.Config#RGB_565}
+     * for the opaque photos, which takes half of the memory. The background
+     * is converted only once when it is copied into the output, and all the
+     * watermarks are drawn in this config. It is ignored if an output bitmap
+     * is set.
+     * <p>
+     * The LSB invisible watermark needs 8 bits per channel, any other
+     * config than {@link Bitmap.Config#ARGB_8888} will fail the build.
+     *
+     * @param outputConfig the config of the output image.
+     * @return This {@link WatermarkBuilder}.
+     */
+    public WatermarkBuilder setOutputConfig(@NonNull Bitmap.Config outputConfig) {
+        this.outputConfig = outputConfig;
+        return this;
+    }
+
+    /**
+     * Set a mutable bitmap as the destination, the watermark will be
+     * rendered into it instead of a new bitmap. It must have the same
+     * size as the (resized) background image.
+     * <p>
+     * The invisible watermarks are built concurrently, so only the first
+     * of them is rendered into this bitmap, the others are rendered into
+     * new bitmaps.
+     *
+     * @param outputBitmap the destination {@link Bitmap}.
+     * @return This {@link WatermarkBuilder}.
+     */
+    public WatermarkBuilder setOutputBitmap(@NonNull Bitmap outputBitmap) {
+        if (!outputBitmap.isMutable() || backgroundImg != null
+                && (outputBitmap.getWidth() != backgroundImg.getWidth()
+                || outputBitmap.getHeight() != backgroundImg.getHeight())) {
+            throw new IllegalArgumentException(ERROR_OUTPUT_BITMAP);
+        }
+        this.outputBitmap = outputBitmap;
+        return this;
+    }
+
+    /**
+     * Use the bit-plane LSB watermark, the low bits of the channels of the
+     * layout are replaced by the bits of the watermark, instead of the last
+     * decimal digit of every channel. The detector must use the same layout.
+     *
+     * @param layout the {@link BitPlaneLayout}, null for the decimal digits.
+     * @return This {@link WatermarkBuilder}.
+     */
+    public WatermarkBuilder setBitPlaneLayout(BitPlaneLayout layout) {
+        this.bitPlaneLayout = layout;
+        return this;
+    }
+
+    /**
+     * Set how an invisible LSB image watermark is packed, before it is
+     * deflated. {@link ImagePayload.Format#GRAY} and {@link ImagePayload.Format#MONO}
+     * need far fewer pixels of the background, but they lose the colors.
+     *
+     * @param format the {@link ImagePayload.Format}, it is ARGB by default.
+     * @return This {@link WatermarkBuilder}.
+     */
+    public WatermarkBuilder setImagePayloadFormat(@NonNull ImagePayload.Format format) {
+        this.imageFormat = format;
+        return this;
+    }
+
+    /**
+     * Set the listener of the stage metrics, the decoding and resizing of
+     * the background are already finished, so they are reported here.
+     *
+     * @param listener the {@link WatermarkMetricsListener}, null to disable it.
+     * @return This {@link WatermarkBuilder}.
+     */
+    public WatermarkBuilder setMetricsListener(WatermarkMetricsListener listener) {
+        this.metricsRecorder = MetricsRecorder.of(listener);
+        for (MetricsRecorder.Sample sample : samples) {
+            metricsRecorder.report(sample);
+        }
+        return this;
+    }
+
+    /**
+     * Set the executor of the invisible watermark jobs. By default, the
+     * jobs run on a shared pool, so independent jobs run in parallel.
+     *
+     * @param executor the {@link Executor} of the jobs.
+     * @return This {@link WatermarkBuilder}.
+     */
+    public WatermarkBuilder setExecutor(@NonNull Executor executor) {
+        this.executor = executor;
+        return this;
+    }
+
+    /**
+     * Set the executor where the {@link BuildFinishListener} is called.
+     * By default, it is called on the main thread, use
+     * {@link WatermarkExecutors#getDirectExecutor()} to call it in the
+     * worker thread directly.
+     *
+     * @param callbackExecutor the {@link Executor} of the callbacks.
+     * @return This {@link WatermarkBuilder}.
+     */
+    public WatermarkBuilder setCallbackExecutor(@NonNull Executor callbackExecutor) {
+        this.callbackExecutor = callbackExecutor;
+        return this;
+    }
+
+    /**
+     * Set the listener of the progress of the invisible watermark jobs,
+     * it is called on the callback executor after every row stripe.
+     *
+     * @param listener the {@link ProgressListener}.
+     * @return This {@link WatermarkBuilder}.
+     */
+    public WatermarkBuilder setProgressListener(ProgressListener listener) {
+        this.progressListener = listener;
+        return this;
+    }
+
+    /**
+     * Build the invisible watermark in the calling thread, it shares the
+     * code of {@link #setInvisibleWMListener(boolean, BuildFinishListener)},
+     * without the thread hop and the callbacks. There must be exactly one
+     * watermark image or text.
+     *
+     * @param isLSB true for the LSB watermark, false for the frequency domain.
+     * @return the watermarked bitmap.
+     * @throws WatermarkCapacityException if the background is too small for the watermark.
+     * @throws WatermarkInputException    if the background is missing, or there is
+     *                                    not exactly one watermark.
+     */
+    @WorkerThread
+    @NonNull
+    public Bitmap embed(boolean isLSB) throws WatermarkException {
+        AsyncTaskParams params = createInvisibleParams()
+                .setOutputConfig(outputConfig)
+                .setOutputBitmap(outputBitmap)
+                .setMetricsRecorder(metricsRecorder)
+                .setBitPlaneLayout(bitPlaneLayout)
+                .setImageFormat(imageFormat);
+        return isLSB ? LSBWatermarkTask.build(params) : FDWatermarkTask.build(params);
+    }
+
     /**
      * set a listener for building progress.
      */
     public void setInvisibleWMListener(
             boolean isLSB,
             BuildFinishListener<Bitmap> listener
+    ) {
+        submitInvisibleWM(isLSB, listener);
+    }
+
+    /**
+     * The same as {@link #setInvisibleWMListener(boolean, BuildFinishListener)},
+     * the jobs can be waited for or cancelled.
+     *
+     * @return the handles of the jobs, one for each invisible watermark.
+     */
+    public List<WatermarkFuture<Bitmap>> submitInvisibleWM(
+            boolean isLSB,
+            BuildFinishListener<Bitmap> listener
     ) {
         this.buildFinishListener = listener;
         this.isLSB = isLSB;
-        new Watermark(
+        return new Watermark(
                 context,
                 backgroundImg,
                 watermarkImage,
                 watermarkBitmaps,
                 watermarkText,
                 watermarkTexts,
-                isTileMode,
+                createCompositor(),
                 true,
                 isLSB,
+                bitPlaneLayout,
+                imageFormat,
+                outputConfig,
+                outputBitmap,
+                metricsRecorder,
+                executor != null ? executor : WatermarkExecutors.getWorkerExecutor(),
+                callbackExecutor != null ? callbackExecutor : WatermarkExecutors.getMainThreadExecutor(),
+                progressListener,
                 buildFinishListener
-        );
+        ).getInvisibleFutures();
     }
 
 
@@ -313,12 +678,73 @@ public final class WatermarkBuilder {
         imageView.invalidate();
         if (imageView.getDrawable() != null) {
             BitmapDrawable drawable = (BitmapDrawable) imageView.getDrawable();
-            if (resizeBackgroundImg) {
-                backgroundImg = resizeBitmap(drawable.getBitmap(), MAX_IMAGE_SIZE);
-            } else {
-                backgroundImg = drawable.getBitmap();
-            }
+            setBackground(drawable.getBitmap());
+        }
+    }
+
+    /**
+     * Set the background image, and resize it if it is needed.
+     */
+    private void setBackground(Bitmap inputImg) {
+        if (resizeBackgroundImg) {
+            long startTime = System.nanoTime();
+            backgroundImg = resizeBitmap(inputImg, MAX_IMAGE_SIZE);
+            samples.add(new MetricsRecorder.Sample(Stage.RESIZE, startTime,
+                    backgroundImg != inputImg ? backgroundImg.getAllocationByteCount() : 0,
+                    backgroundImg.getWidth(), backgroundImg.getHeight(), 0));
+        } else {
+            backgroundImg = inputImg;
+        }
+    }
+
+    /**
+     * The decoding is finished before the resizing, so its sample
+     * is always the first one.
+     */
+    private WatermarkBuilder addDecodeSample(long startTime, Bitmap decodedImg) {
+        if (decodedImg != null) {
+            samples.add(0, new MetricsRecorder.Sample(Stage.DECODE, startTime,
+                    decodedImg.getAllocationByteCount(), decodedImg.getWidth(), decodedImg.getHeight(), 0));
+        }
+        return this;
+    }
+
+    /**
+     * create a compositor with the drawing options of this builder.
+     */
+    private WatermarkCompositor createCompositor() {
+        return new WatermarkCompositor(context, isTileMode)
+                .setMetricsRecorder(metricsRecorder)
+                .setTileSpacing(tileSpacingX, tileSpacingY)
+                .setTileStagger(tileStagger)
+                .setInPlace(isInPlace)
+                .setOutputConfig(outputConfig);
+    }
+
+    /**
+     * The parameters of the only invisible watermark of this builder.
+     */
+    private AsyncTaskParams createInvisibleParams() throws WatermarkInputException {
+        if (backgroundImg == null) {
+            throw new WatermarkInputException(ERROR_NO_BACKGROUND);
+        }
+
+        int count = (watermarkImage != null ? 1 : 0) + (watermarkText != null ? 1 : 0)
+                + watermarkBitmaps.size() + watermarkTexts.size();
+        if (count == 0) {
+            throw new WatermarkInputException(ERROR_NO_WATERMARKS);
+        } else if (count > 1) {
+            throw new WatermarkInputException(ERROR_SINGLE_INVISIBLE);
+        }
+
+        WatermarkImage image = watermarkImage != null || watermarkBitmaps.isEmpty()
+                ? watermarkImage : watermarkBitmaps.get(0);
+        if (image != null) {
+            return new AsyncTaskParams(context, backgroundImg,
+                    Watermark.scaleInvisibleWatermark(image, backgroundImg));
         }
+        return new AsyncTaskParams(context, backgroundImg,
+                watermarkText != null ? watermarkText : watermarkTexts.get(0));
     }
 
     /**
@@ -334,9 +760,17 @@ public final class WatermarkBuilder {
                 watermarkBitmaps,
                 watermarkText,
                 watermarkTexts,
-                isTileMode,
+                createCompositor(),
                 false,
                 isLSB,
+                bitPlaneLayout,
+                imageFormat,
+                outputConfig,
+                outputBitmap,
+                metricsRecorder,
+                executor != null ? executor : WatermarkExecutors.getWorkerExecutor(),
+                callbackExecutor != null ? callbackExecutor : WatermarkExecutors.getMainThreadExecutor(),
+                progressListener,
                 buildFinishListener
         );
     }
@@ -0,0 +1,454 @@
+/*
+ *    Copyright 2018 Yizheng Huang
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package com.watermark.androidwm;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapShader;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffXfermode;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.graphics.Shader;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.watermark.androidwm.bean.WatermarkImage;
+import com.watermark.androidwm.bean.WatermarkObject;
+import com.watermark.androidwm.bean.WatermarkText;
+import com.watermark.androidwm.listener.WatermarkMetricsListener.Stage;
+import com.watermark.androidwm.utils.BitmapPool;
+import com.watermark.androidwm.utils.MetricsRecorder;
+import com.watermark.androidwm.utils.TextBitmapCache;
+import com.watermark.androidwm.utils.TransformBitmapCache;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The compositor for visible watermarks. It collects every
+ * {@link WatermarkObject} layer first, and then draws all of them
+ * onto one output bitmap in a single pass, so the background is
+ * copied only once per build.
+ *
+ * @author huangyz0918 (huangyz0918@gmail.com)
+ */
+final class WatermarkCompositor {
+    private final Context context;
+    private final boolean isTileMode;
+    private final List<Layer> layers = new ArrayList<>();
+    private int tileSpacingX;
+    private int tileSpacingY;
+    private float tileStagger;
+    private boolean isInPlace;
+    private Bitmap.Config outputConfig;
+    private MetricsRecorder metricsRecorder = MetricsRecorder.NONE;
+    private final Rect dirtyRect = new Rect();
+    // the tile paints of the layers, they are reused by all the strips of a frame.
+    private final Map<Layer, TilePaint> tilePaints = new IdentityHashMap<>();
+
+    WatermarkCompositor(@NonNull Context context, boolean isTileMode) {
+        this.context = context;
+        this.isTileMode = isTileMode;
+    }
+
+    /**
+     * Set the gaps between the tiles in tile mode, in pixels.
+     */
+    WatermarkCompositor setTileSpacing(int horizontal, int vertical) {
+        this.tileSpacingX = Math.max(0, horizontal);
+        this.tileSpacingY = Math.max(0, vertical);
+        return this;
+    }
+
+    /**
+     * Set the horizontal offset of every second row in tile mode,
+     * as a proportion of the tile width (with spacing).
+     */
+    WatermarkCompositor setTileStagger(float stagger) {
+        this.tileStagger = stagger;
+        return this;
+    }
+
+    /**
+     * Draw the layers directly into the background if it is mutable, so
+     * only the pixels under the bounding boxes of the layers are touched,
+     * instead of copying the whole background first.
+     */
+    WatermarkCompositor setInPlace(boolean inPlace) {
+        this.isInPlace = inPlace;
+        return this;
+    }
+
+    /**
+     * Set the config of the output bitmap, the background is converted
+     * once when it is drawn into the output, and all the layers are drawn
+     * in this config. If it is null, the config of the background is used.
+     */
+    WatermarkCompositor setOutputConfig(@Nullable Bitmap.Config config) {
+        this.outputConfig = config;
+        return this;
+    }
+
+    /**
+     * Set the recorder of the text rasterization and the composing.
+     */
+    WatermarkCompositor setMetricsRecorder(@NonNull MetricsRecorder recorder) {
+        this.metricsRecorder = recorder;
+        return this;
+    }
+
+    /**
+     * The union of the bounding boxes of the layers drawn by the last
+     * {@link #compose(Bitmap, Bitmap)}, all the pixels outside of it are
+     * the same as the background.
+     */
+    Rect getDirtyRect() {
+        return new Rect(dirtyRect);
+    }
+
+    /**
+     * Add a single layer, layers will be drawn in the order of adding.
+     */
+    WatermarkCompositor addLayer(@Nullable WatermarkObject<?> layer) {
+        if (layer != null) {
+            long startTime = metricsRecorder.start();
+            Layer prepared = Layer.prepare(context, layer);
+            if (!prepared.isImage) {
+                metricsRecorder.end(Stage.RASTERIZE_TEXT, startTime, prepared.mark.getAllocationByteCount(),
+                        prepared.mark.getWidth(), prepared.mark.getHeight(), 0);
+            }
+            layers.add(prepared);
+        }
+        return this;
+    }
+
+    /**
+     * Add a set of layers, null entries are ignored.
+     */
+    WatermarkCompositor addLayers(@Nullable List<? extends WatermarkObject<?>> layerList) {
+        if (layerList != null) {
+            for (WatermarkObject<?> layer : layerList) {
+                addLayer(layer);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Add a set of layers which are already prepared, for example by a
+     * {@link WatermarkTemplate}.
+     */
+    WatermarkCompositor addPreparedLayers(@NonNull List<Layer> preparedLayers) {
+        layers.addAll(preparedLayers);
+        return this;
+    }
+
+    /**
+     * Draw the background and all the collected layers into one bitmap.
+     * If there is no layer and no output bitmap, the background image
+     * will be returned directly.
+     *
+     * @param backgroundImg the background image.
+     * @param outputBitmap  the mutable bitmap to render into, if it is null,
+     *                      the background itself (in place mode) or a bitmap
+     *                      from the {@link BitmapPool} will be used.
+     * @return {@link Bitmap} the composite image.
+     */
+    Bitmap compose(@NonNull Bitmap backgroundImg, @Nullable Bitmap outputBitmap) {
+        Bitmap.Config config = outputConfig != null ? outputConfig : backgroundImg.getConfig();
+        boolean isSameConfig = config == backgroundImg.getConfig();
+        if (layers.isEmpty() && outputBitmap == null && isSameConfig) {
+            return backgroundImg;
+        }
+
+        long startTime = metricsRecorder.start();
+        Bitmap outputImage = outputBitmap;
+        if (outputImage == null && isInPlace && isSameConfig && backgroundImg.isMutable()) {
+            outputImage = backgroundImg;
+        } else if (outputImage == null) {
+            // every pixel will be overwritten by the background.
+            outputImage = BitmapPool.getInstance().getDirty(backgroundImg.getWidth(),
+                    backgroundImg.getHeight(), config);
+        }
+
+        Canvas watermarkCanvas = new Canvas(outputImage);
+        if (outputImage != backgroundImg) {
+            // this is the only conversion, if the output has another config.
+            Paint backgroundPaint = new Paint(Paint.DITHER_FLAG);
+            backgroundPaint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.SRC));
+            watermarkCanvas.drawBitmap(backgroundImg, 0, 0, backgroundPaint);
+        }
+
+        dirtyRect.setEmpty();
+        for (Layer layer : layers) {
+            dirtyRect.union(drawLayer(watermarkCanvas, layer,
+                    backgroundImg.getWidth(), backgroundImg.getHeight()));
+        }
+        releaseTiles();
+
+        metricsRecorder.end(Stage.COMPOSE, startTime,
+                outputImage != backgroundImg ? outputImage.getAllocationByteCount() : 0,
+                outputImage.getWidth(), outputImage.getHeight(), 0);
+        return outputImage;
+    }
+
+    /**
+     * Draw the layers into a horizontal strip of a bigger frame, the strip
+     * is changed in place. The layers are placed relative to the whole
+     * frame, and only the parts inside the strip are drawn. In tile mode,
+     * the tile pattern of every layer is built once for all the strips of
+     * the frame, until {@link #releaseTiles()}.
+     *
+     * @param strip       the mutable strip, it has the same width as the frame.
+     * @param frameWidth  the width of the whole frame.
+     * @param frameHeight the height of the whole frame.
+     * @param top         the position of the strip in the frame.
+     */
+    void drawStrip(@NonNull Bitmap strip, int frameWidth, int frameHeight, int top) {
+        Canvas stripCanvas = new Canvas(strip);
+        stripCanvas.translate(0, -top);
+        for (Layer layer : layers) {
+            drawLayer(stripCanvas, layer, frameWidth, frameHeight);
+        }
+    }
+
+    /**
+     * Give the tile cells of the strips back to the {@link BitmapPool}.
+     */
+    void releaseTiles() {
+        for (TilePaint tilePaint : tilePaints.values()) {
+            tilePaint.release();
+        }
+        tilePaints.clear();
+    }
+
+    /**
+     * Draw a layer, and return its bounding box in the frame.
+     */
+    private Rect drawLayer(Canvas canvas, Layer layer, int frameWidth, int frameHeight) {
+        int rotation = layer.rotation;
+        Bitmap mark = layer.mark;
+        int alpha = layer.alpha;
+        float scale = layer.isImage
+                ? (float) (frameWidth * layer.size) / mark.getWidth() : 1;
+
+        if (isTileMode) {
+            Rect bitmapShaderRect = canvas.getClipBounds();
+            canvas.drawRect(bitmapShaderRect, tilePaint(layer, frameWidth, frameHeight).paint);
+            return bitmapShaderRect;
+        } else {
+            Paint watermarkPaint = new Paint(Paint.FILTER_BITMAP_FLAG | Paint.ANTI_ALIAS_FLAG);
+            watermarkPaint.setAlpha(alpha);
+            Matrix matrix = layerMatrix(layer, mark, scale, rotation, frameWidth, frameHeight);
+
+            // limit the drawing to the bounding box of the rotated mark.
+            RectF bounds = new RectF(0, 0, mark.getWidth(), mark.getHeight());
+            matrix.mapRect(bounds);
+            Rect layerRect = new Rect();
+            bounds.roundOut(layerRect);
+            if (!layerRect.intersect(canvas.getClipBounds())) {
+                return new Rect();
+            }
+
+            canvas.save();
+            canvas.clipRect(layerRect);
+            canvas.drawBitmap(mark, matrix, watermarkPaint);
+            canvas.restore();
+            return layerRect;
+        }
+    }
+
+    /**
+     * The paint of the tile pattern of a layer, it is built when the layer is
+     * first drawn into a frame, and reused for the other strips of the frame.
+     */
+    private TilePaint tilePaint(Layer layer, int frameWidth, int frameHeight) {
+        TilePaint tilePaint = tilePaints.get(layer);
+        if (tilePaint != null && tilePaint.frameWidth == frameWidth && tilePaint.frameHeight == frameHeight) {
+            return tilePaint;
+        }
+        if (tilePaint != null) {
+            tilePaint.release();
+        }
+
+        // the scaled tiles are cached and shared, they will not be recycled here.
+        Bitmap tile = layer.mark;
+        if (layer.isImage) {
+            tile = TransformBitmapCache.getInstance().get(layer.mark,
+                    (float) layer.size, frameWidth, 0);
+        }
+        Bitmap tileCell = createTileCell(tile);
+
+        // rotate the pattern with the shader, instead of rotating the tile bitmap.
+        BitmapShader shader = new BitmapShader(tileCell,
+                Shader.TileMode.REPEAT,
+                Shader.TileMode.REPEAT);
+        Matrix localMatrix = new Matrix();
+        localMatrix.setRotate(layer.rotation, (float) frameWidth / 2, (float) frameHeight / 2);
+        shader.setLocalMatrix(localMatrix);
+
+        Paint watermarkPaint = new Paint(Paint.FILTER_BITMAP_FLAG | Paint.ANTI_ALIAS_FLAG);
+        watermarkPaint.setAlpha(layer.alpha);
+        watermarkPaint.setShader(shader);
+        tilePaint = new TilePaint(watermarkPaint, tileCell != tile ? tileCell : null,
+                frameWidth, frameHeight);
+        tilePaints.put(layer, tilePaint);
+        return tilePaint;
+    }
+
+    /**
+     * Build one repeating cell of the tile pattern, with the spacing on the
+     * right and bottom side. If the rows are staggered, the cell contains two
+     * rows and the second one is shifted. The tile itself is returned if there
+     * is no spacing or stagger.
+     */
+    private Bitmap createTileCell(Bitmap tile) {
+        int cellWidth = tile.getWidth() + tileSpacingX;
+        int rowHeight = tile.getHeight() + tileSpacingY;
+        int staggerOffset = Math.round(cellWidth * tileStagger) % cellWidth;
+        if (staggerOffset < 0) {
+            staggerOffset += cellWidth;
+        }
+
+        if (tileSpacingX == 0 && tileSpacingY == 0 && staggerOffset == 0) {
+            return tile;
+        }
+
+        int cellHeight = staggerOffset == 0 ? rowHeight : rowHeight * 2;
+        Bitmap tileCell = BitmapPool.getInstance().get(cellWidth, cellHeight, Bitmap.Config.ARGB_8888);
+        Canvas cellCanvas = new Canvas(tileCell);
+        cellCanvas.drawBitmap(tile, 0, 0, null);
+        if (staggerOffset != 0) {
+            cellCanvas.drawBitmap(tile, staggerOffset, rowHeight, null);
+            cellCanvas.drawBitmap(tile, staggerOffset - cellWidth, rowHeight, null);
+        }
+        return tileCell;
+    }
+
+    /**
+     * Build the matrix which scales the mark, rotates it around its center,
+     * and translates it to the aligned position. The align origin is taken
+     * from the bounding box of the rotated mark, same as drawing a rotated
+     * copy of the mark at {@code position - origin * size}.
+     */
+    private static Matrix layerMatrix(Layer layer, Bitmap mark, float scale,
+                                      int rotation, int frameWidth, int frameHeight) {
+        Matrix matrix = new Matrix();
+        matrix.setScale(scale, scale);
+        matrix.postRotate(rotation, mark.getWidth() * scale / 2, mark.getHeight() * scale / 2);
+
+        RectF bounds = new RectF(0, 0, mark.getWidth(), mark.getHeight());
+        matrix.mapRect(bounds);
+
+        double originX = bounds.width() * layer.originX;
+        double originY = bounds.height() * layer.originY;
+        double posX = layer.positionX * frameWidth - originX;
+        double posY = layer.positionY * frameHeight - originY;
+        matrix.postTranslate((float) posX - bounds.left, (float) posY - bounds.top);
+        return matrix;
+    }
+
+    /**
+     * The shader paint of a tiled layer in a frame, with the tile cell
+     * which is borrowed from the {@link BitmapPool}, if there is one.
+     */
+    private static final class TilePaint {
+        private final Paint paint;
+        private final Bitmap pooledCell;
+        private final int frameWidth;
+        private final int frameHeight;
+
+        TilePaint(Paint paint, @Nullable Bitmap pooledCell, int frameWidth, int frameHeight) {
+            this.paint = paint;
+            this.pooledCell = pooledCell;
+            this.frameWidth = frameWidth;
+            this.frameHeight = frameHeight;
+        }
+
+        void release() {
+            if (pooledCell != null) {
+                BitmapPool.getInstance().put(pooledCell);
+            }
+        }
+    }
+
+    /**
+     * An immutable snapshot of a {@link WatermarkObject}, with the text
+     * already rendered into a bitmap. Since the beans are mutable, the
+     * layers are prepared when they are added, and a prepared layer can
+     * be shared by the compositors running on different threads.
+     */
+    static final class Layer {
+        private final Bitmap mark;
+        private final boolean isImage;
+        private final double size;
+        private final int alpha;
+        private final int rotation;
+        private final double positionX;
+        private final double positionY;
+        private final double originX;
+        private final double originY;
+
+        private Layer(Bitmap mark, boolean isImage, double size, int alpha, int rotation,
+                      double positionX, double positionY, double originX, double originY) {
+            this.mark = mark;
+            this.isImage = isImage;
+            this.size = size;
+            this.alpha = alpha;
+            this.rotation = rotation;
+            this.positionX = positionX;
+            this.positionY = positionY;
+            this.originX = originX;
+            this.originY = originY;
+        }
+
+        private Layer(Bitmap mark, boolean isImage, double size, int alpha, WatermarkObject<?> obj) {
+            this(mark, isImage, size, alpha, (int) obj.getPosition().getRotation(),
+                    obj.getPosition().getPositionX(), obj.getPosition().getPositionY(),
+                    obj.getOrigin().getPositionX(), obj.getOrigin().getPositionY());
+        }
+
+        static Layer prepare(@NonNull Context context, @NonNull WatermarkObject<?> obj) {
+            if (obj instanceof WatermarkImage) {
+                WatermarkImage watermarkImg = (WatermarkImage) obj;
+                return new Layer(watermarkImg.getImage(), true, watermarkImg.getSize(),
+                        watermarkImg.getAlpha(), obj);
+            }
+            WatermarkText watermarkText = (WatermarkText) obj;
+            return new Layer(TextBitmapCache.getInstance().get(context, watermarkText), false, 0,
+                    watermarkText.getTextAlpha(), obj);
+        }
+
+        /**
+         * The same layer with an immutable copy of the mark, so it
+         * cannot be changed by the owner of the source bitmap.
+         */
+        Layer immutableCopy() {
+            if (!mark.isMutable()) {
+                return this;
+            }
+            return new Layer(mark.copy(mark.getConfig(), false), isImage, size, alpha,
+                    rotation, positionX, positionY, originX, originY);
+        }
+    }
+}
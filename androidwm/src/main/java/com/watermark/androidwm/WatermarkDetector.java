@@ -19,11 +19,25 @@ package com.watermark.androidwm;
 import android.graphics.Bitmap;
 import android.graphics.drawable.BitmapDrawable;
 import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
 import android.widget.ImageView;
 
+import com.watermark.androidwm.core.BitPlaneLayout;
+import com.watermark.androidwm.core.ProgressMonitor;
+import com.watermark.androidwm.listener.BuildFinishListener;
 import com.watermark.androidwm.listener.DetectFinishListener;
+import com.watermark.androidwm.listener.ProgressListener;
+import com.watermark.androidwm.listener.WatermarkMetricsListener;
+import com.watermark.androidwm.task.DetectionReturnValue;
 import com.watermark.androidwm.task.FDDetectionTask;
 import com.watermark.androidwm.task.LSBDetectionTask;
+import com.watermark.androidwm.task.WatermarkFuture;
+import com.watermark.androidwm.utils.MetricsRecorder;
+import com.watermark.androidwm.utils.WatermarkExecutors;
+
+import java.util.concurrent.Executor;
+
+import static com.watermark.androidwm.utils.Constant.LSB_MIN_AGREEING_COPIES;
 
 /**
  * This is for detecting the invisible watermark in one picture.
@@ -33,6 +47,12 @@ import com.watermark.androidwm.task.LSBDetectionTask;
 public final class WatermarkDetector {
     private Bitmap imageWithWatermark;
     private boolean isLSB;
+    private BitPlaneLayout bitPlaneLayout;
+    private int minAgreeingCopies = LSB_MIN_AGREEING_COPIES;
+    private MetricsRecorder metricsRecorder = MetricsRecorder.NONE;
+    private Executor executor;
+    private Executor callbackExecutor;
+    private ProgressListener progressListener;
 
     private WatermarkDetector(
             @NonNull Bitmap imageWithWatermark,
@@ -61,14 +81,135 @@ public final class WatermarkDetector {
         return new WatermarkDetector(drawable.getBitmap(), isLSB);
     }
 
+    /**
+     * Detect the bit-plane LSB watermark of the layout, it is only used
+     * in the LSB mode.
+     *
+     * @param layout the {@link BitPlaneLayout} of the embedding, null for the decimal digits.
+     * @return This {@link WatermarkDetector}.
+     */
+    public WatermarkDetector setBitPlaneLayout(BitPlaneLayout layout) {
+        this.bitPlaneLayout = layout;
+        return this;
+    }
+
+    /**
+     * Set how many copies of the LSB watermark must agree on every bit.
+     * The payload is repeated over the image, and the copies are found by
+     * their flags, so the image may be cropped, and decoded by a majority
+     * vote. The vote stops as soon as the majority of every bit leads by
+     * this number of copies. A larger number tolerates more damage and
+     * reads more of the image, with 1 only the first copy is read. The
+     * default is 2.
+     *
+     * @param minAgreeingCopies the lead of the majority, at least 1.
+     * @return This {@link WatermarkDetector}.
+     */
+    public WatermarkDetector setMinAgreeingCopies(int minAgreeingCopies) {
+        if (minAgreeingCopies < 1) {
+            throw new IllegalArgumentException("The min agreeing copies must be positive: "
+                    + minAgreeingCopies);
+        }
+        this.minAgreeingCopies = minAgreeingCopies;
+        return this;
+    }
+
+    /**
+     * Set the listener of the stage metrics of the detection.
+     *
+     * @param listener the {@link WatermarkMetricsListener}, null to disable it.
+     * @return This {@link WatermarkDetector}.
+     */
+    public WatermarkDetector setMetricsListener(WatermarkMetricsListener listener) {
+        this.metricsRecorder = MetricsRecorder.of(listener);
+        return this;
+    }
+
+    /**
+     * Set the executor of the detection job, by default it is a shared pool.
+     *
+     * @return This {@link WatermarkDetector}.
+     */
+    public WatermarkDetector setExecutor(@NonNull Executor executor) {
+        this.executor = executor;
+        return this;
+    }
+
+    /**
+     * Set the executor where the {@link DetectFinishListener} is called,
+     * by default it is the main thread.
+     *
+     * @return This {@link WatermarkDetector}.
+     */
+    public WatermarkDetector setCallbackExecutor(@NonNull Executor callbackExecutor) {
+        this.callbackExecutor = callbackExecutor;
+        return this;
+    }
+
+    /**
+     * Set the listener of the detection progress, it is called on the
+     * callback executor after every row stripe.
+     *
+     * @return This {@link WatermarkDetector}.
+     */
+    public WatermarkDetector setProgressListener(ProgressListener listener) {
+        this.progressListener = listener;
+        return this;
+    }
+
+    /**
+     * Detect the watermark in the calling thread, it shares the code of
+     * {@link #detect(DetectFinishListener)}, without the thread hop and
+     * the callbacks.
+     *
+     * @return the detected watermark.
+     * @throws WatermarkNotFoundException if there is no watermark.
+     * @throws WatermarkInputException    if the image is too large.
+     */
+    @WorkerThread
+    @NonNull
+    public DetectionReturnValue detect() throws WatermarkException {
+        return isLSB ? LSBDetectionTask.detect(imageWithWatermark, bitPlaneLayout, minAgreeingCopies,
+                metricsRecorder, ProgressMonitor.NONE)
+                : FDDetectionTask.detect(imageWithWatermark, metricsRecorder);
+    }
+
     /**
      * The method for watermark detecting.
      */
     public void detect(DetectFinishListener listener) {
-        if (isLSB) {
-            new LSBDetectionTask(listener).execute(imageWithWatermark);
-        } else {
-            new FDDetectionTask(listener).execute(imageWithWatermark);
-        }
+        submitDetect(listener);
+    }
+
+    /**
+     * The same as {@link #detect(DetectFinishListener)}, the detection job
+     * can be waited for or cancelled.
+     *
+     * @return the handle of the detection job.
+     */
+    public WatermarkFuture<DetectionReturnValue> submitDetect(final DetectFinishListener listener) {
+        final Bitmap markedBitmap = imageWithWatermark;
+        final MetricsRecorder metrics = metricsRecorder;
+        final boolean detectLSB = isLSB;
+        final BitPlaneLayout layout = bitPlaneLayout;
+        final int agreeingCopies = minAgreeingCopies;
+        return new WatermarkFuture<>(new WatermarkFuture.Job<DetectionReturnValue>() {
+            @Override
+            public DetectionReturnValue run(ProgressMonitor monitor) throws WatermarkException {
+                return detectLSB ? LSBDetectionTask.detect(markedBitmap, layout, agreeingCopies, metrics, monitor)
+                        : FDDetectionTask.detect(markedBitmap, metrics, monitor);
+            }
+        }, new BuildFinishListener<DetectionReturnValue>() {
+            @Override
+            public void onSuccess(DetectionReturnValue returnValue) {
+                listener.onSuccess(returnValue);
+            }
+
+            @Override
+            public void onFailure(String message) {
+                listener.onFailure(message);
+            }
+        }, progressListener, callbackExecutor != null ? callbackExecutor : WatermarkExecutors.getMainThreadExecutor())
+                .submit(executor != null ? executor : WatermarkExecutors.getWorkerExecutor());
     }
 }
@@ -0,0 +1,34 @@
+/*
+ *    Copyright 2018 Yizheng Huang
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package com.watermark.androidwm;
+
+/**
+ * The exception of a failed watermark build or detection, the message
+ * is the same as the one passed to the failure callbacks.
+ *
+ * @author huangyz0918 (huangyz0918@gmail.com)
+ */
+public class WatermarkException extends Exception {
+
+    public WatermarkException(String message) {
+        super(message);
+    }
+
+    public WatermarkException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
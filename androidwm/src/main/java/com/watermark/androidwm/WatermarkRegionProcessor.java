@@ -0,0 +1,148 @@
+/*
+ *    Copyright 2018 Yizheng Huang
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package com.watermark.androidwm;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
+import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
+
+import com.watermark.androidwm.utils.BitmapPool;
+import com.watermark.androidwm.utils.PngStreamEncoder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import static com.watermark.androidwm.utils.Constant.ERROR_REGION_INVISIBLE;
+
+/**
+ * A pipeline for the images which are too large to be decoded at once,
+ * e.g. the full resolution camera photos. The image is decoded by a
+ * {@link BitmapRegionDecoder} in horizontal strips, the watermarks of a
+ * {@link WatermarkTemplate} are drawn into every strip, and the strips are
+ * written by a {@link PngStreamEncoder}. The peak memory is bounded by the
+ * strip size instead of the image size.
+ * <p>
+ * Only visible templates are supported, and the image is never resized,
+ * the resize option of the template is ignored.
+ *
+ * @author huangyz0918 (huangyz0918@gmail.com)
+ */
+public final class WatermarkRegionProcessor {
+    private static final int DEFAULT_STRIP_SIZE = 4 * 1024 * 1024;
+
+    private final WatermarkTemplate template;
+    private int stripHeight = 0;
+
+    public WatermarkRegionProcessor(@NonNull WatermarkTemplate template) {
+        if (template.isInvisible()) {
+            throw new IllegalArgumentException(ERROR_REGION_INVISIBLE);
+        }
+        this.template = template;
+    }
+
+    /**
+     * Set the number of the rows decoded at once. If it is not set,
+     * the strips are about 4MB each.
+     *
+     * @return This {@link WatermarkRegionProcessor}.
+     */
+    public WatermarkRegionProcessor setStripHeight(int stripHeight) {
+        this.stripHeight = Math.max(1, stripHeight);
+        return this;
+    }
+
+    /**
+     * Watermark an encoded image (JPEG, PNG or WebP) from the input, and
+     * write the full resolution result into the output as a PNG.
+     * Neither of the streams is closed.
+     */
+    @WorkerThread
+    @SuppressWarnings("deprecation")
+    public void process(@NonNull InputStream input, @NonNull OutputStream output) throws IOException {
+        BitmapRegionDecoder decoder = BitmapRegionDecoder.newInstance(input, false);
+        if (decoder == null) {
+            throw new IOException("Cannot decode the input image.");
+        }
+        try {
+            process(decoder, output);
+        } finally {
+            decoder.recycle();
+        }
+    }
+
+    /**
+     * Watermark an image file, and write the full resolution result
+     * into the output as a PNG. The output stream is not closed.
+     */
+    @WorkerThread
+    @SuppressWarnings("deprecation")
+    public void process(@NonNull String inputPath, @NonNull OutputStream output) throws IOException {
+        BitmapRegionDecoder decoder = BitmapRegionDecoder.newInstance(inputPath, false);
+        if (decoder == null) {
+            throw new IOException("Cannot decode the input image: " + inputPath);
+        }
+        try {
+            process(decoder, output);
+        } finally {
+            decoder.recycle();
+        }
+    }
+
+    private void process(BitmapRegionDecoder decoder, OutputStream output) throws IOException {
+        int width = decoder.getWidth();
+        int height = decoder.getHeight();
+        int rows = stripHeight > 0 ? stripHeight : Math.max(1, DEFAULT_STRIP_SIZE / (width * 4));
+        rows = Math.min(rows, height);
+
+        // the tile patterns of the compositor are built once for all the strips.
+        WatermarkCompositor compositor = template.createCompositor();
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        options.inMutable = true;
+
+        // the strip bitmap and the pixel buffer are reused by all the strips.
+        Bitmap stripBitmap = BitmapPool.getInstance().getDirty(width, rows, Bitmap.Config.ARGB_8888);
+        int[] stripPixels = new int[width * rows];
+        Rect region = new Rect();
+        try (PngStreamEncoder encoder = new PngStreamEncoder(output, width, height)) {
+            for (int top = 0; top < height; top += rows) {
+                int bottom = Math.min(height, top + rows);
+                region.set(0, top, width, bottom);
+                // only a strip with the same size can be decoded into the reused bitmap.
+                options.inBitmap = bottom - top == rows ? stripBitmap : null;
+                Bitmap strip = decoder.decodeRegion(region, options);
+                if (strip == null) {
+                    throw new IOException("Cannot decode the region: " + region);
+                }
+
+                compositor.drawStrip(strip, width, height, top);
+                strip.getPixels(stripPixels, 0, width, 0, 0, width, bottom - top);
+                encoder.writeRows(stripPixels, 0, width, bottom - top);
+                if (strip != stripBitmap) {
+                    strip.recycle();
+                }
+            }
+        } finally {
+            compositor.releaseTiles();
+            BitmapPool.getInstance().put(stripBitmap);
+        }
+    }
+}
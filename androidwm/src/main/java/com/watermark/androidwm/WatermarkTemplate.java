@@ -0,0 +1,426 @@
+/*
+ *    Copyright 2018 Yizheng Huang
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package com.watermark.androidwm;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.util.LruCache;
+import androidx.annotation.FloatRange;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import com.watermark.androidwm.bean.WatermarkImage;
+import com.watermark.androidwm.bean.WatermarkObject;
+import com.watermark.androidwm.bean.WatermarkText;
+import com.watermark.androidwm.core.BitPlaneLayout;
+import com.watermark.androidwm.core.ImagePayload;
+import com.watermark.androidwm.core.ProgressMonitor;
+import com.watermark.androidwm.task.FDWatermarkTask;
+import com.watermark.androidwm.task.LSBWatermarkTask;
+import com.watermark.androidwm.utils.BitmapPool;
+import com.watermark.androidwm.utils.MetricsRecorder;
+import com.watermark.androidwm.utils.TransformBitmapCache;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static com.watermark.androidwm.utils.BitmapUtils.resizeBitmap;
+import static com.watermark.androidwm.utils.Constant.ERROR_LSB_CONFIG;
+import static com.watermark.androidwm.utils.Constant.ERROR_NO_WATERMARKS;
+import static com.watermark.androidwm.utils.Constant.ERROR_OUTPUT_BITMAP;
+import static com.watermark.androidwm.utils.Constant.ERROR_PIXELS_NOT_ENOUGH;
+import static com.watermark.androidwm.utils.Constant.ERROR_TEMPLATE_INVISIBLE;
+import static com.watermark.androidwm.utils.Constant.MAX_IMAGE_SIZE;
+
+/**
+ * A compiled watermark definition, which can be applied to many
+ * backgrounds. Unlike {@link WatermarkBuilder}, it is not bound to a
+ * background image: the watermark objects are validated and snapshotted,
+ * the texts are rendered and the invisible payloads are encoded only once,
+ * in {@link Builder#build()}.
+ * <p>
+ * A template is immutable, and {@link #apply(Bitmap)} can be called
+ * from several threads at the same time.
+ *
+ * @author huangyz0918 (huangyz0918@gmail.com)
+ */
+public final class WatermarkTemplate {
+    // the widths of the backgrounds whose image payloads are kept.
+    private static final int MAX_CACHED_PAYLOADS = 4;
+
+    private final Context context;
+    private final List<WatermarkCompositor.Layer> layers;
+    private final boolean isTileMode;
+    private final int tileSpacingX;
+    private final int tileSpacingY;
+    private final float tileStagger;
+    private final boolean resizeBackgroundImg;
+    private final Bitmap.Config outputConfig;
+    private final boolean isInvisible;
+    private final boolean isLSB;
+    private final BitPlaneLayout bitPlaneLayout;
+    private final ImagePayload.Format imageFormat;
+    private final Bitmap invisibleImage;
+    private final double invisibleImageSize;
+    // the payloads are byte arrays in the bit-plane mode, and int arrays
+    // otherwise, the image payloads depend on the width of the background,
+    // only the recently used widths are kept, as the template lives long.
+    private final LruCache<Integer, Object> invisiblePayloads = new LruCache<>(MAX_CACHED_PAYLOADS);
+    private final Object invisibleTextPayload;
+
+    private WatermarkTemplate(Builder builder) throws WatermarkInputException {
+        this.context = builder.context;
+        this.isTileMode = builder.isTileMode;
+        this.tileSpacingX = builder.tileSpacingX;
+        this.tileSpacingY = builder.tileSpacingY;
+        this.tileStagger = builder.tileStagger;
+        this.resizeBackgroundImg = builder.resizeBackgroundImg;
+        this.outputConfig = builder.outputConfig;
+        this.isInvisible = builder.isInvisible;
+        this.isLSB = builder.isLSB;
+        this.bitPlaneLayout = builder.isLSB ? builder.bitPlaneLayout : null;
+        this.imageFormat = builder.imageFormat;
+
+        List<WatermarkObject<?>> objects = builder.collectObjects();
+        if (objects.isEmpty()) {
+            throw new WatermarkInputException(ERROR_NO_WATERMARKS);
+        }
+
+        if (isInvisible) {
+            if (objects.size() != 1) {
+                throw new WatermarkInputException(ERROR_TEMPLATE_INVISIBLE);
+            }
+            if (isLSB && !LSBWatermarkTask.canHoldPayload(null, outputConfig)) {
+                throw new WatermarkInputException(ERROR_LSB_CONFIG);
+            }
+            this.layers = Collections.emptyList();
+            WatermarkObject<?> object = objects.get(0);
+            if (object instanceof WatermarkImage) {
+                Bitmap image = ((WatermarkImage) object).getImage();
+                this.invisibleImage = image.isMutable() ? image.copy(image.getConfig(), false) : image;
+                this.invisibleImageSize = ((WatermarkImage) object).getSize();
+                this.invisibleTextPayload = null;
+            } else {
+                this.invisibleImage = null;
+                this.invisibleImageSize = 0;
+                this.invisibleTextPayload = createPayload(null, (WatermarkText) object);
+            }
+        } else {
+            List<WatermarkCompositor.Layer> preparedLayers = new ArrayList<>(objects.size());
+            for (WatermarkObject<?> object : objects) {
+                preparedLayers.add(WatermarkCompositor.Layer.prepare(context, object).immutableCopy());
+            }
+            this.layers = Collections.unmodifiableList(preparedLayers);
+            this.invisibleImage = null;
+            this.invisibleImageSize = 0;
+            this.invisibleTextPayload = null;
+        }
+    }
+
+    /**
+     * Apply the watermark to a background image, the result
+     * is rendered into a new bitmap.
+     *
+     * @see #apply(Bitmap, Bitmap)
+     */
+    @NonNull
+    @WorkerThread
+    public Bitmap apply(@NonNull Bitmap backgroundImg) throws WatermarkException {
+        return apply(backgroundImg, null);
+    }
+
+    /**
+     * Apply the watermark to a background image. The background is resized
+     * first if the template is built with the resize option, the input
+     * bitmap itself is never changed.
+     *
+     * @param backgroundImg the background image.
+     * @param outputBitmap  the mutable bitmap to render into, it must have the
+     *                      same size as the (resized) background. If it is null,
+     *                      a bitmap from the {@link BitmapPool} will be used.
+     * @return {@link Bitmap} the watermarked image.
+     * @throws WatermarkInputException    if the output bitmap doesn't fit, or cannot
+     *                                    hold the LSB payload.
+     * @throws WatermarkCapacityException if the background is too small for an
+     *                                    invisible watermark.
+     */
+    @NonNull
+    @WorkerThread
+    public Bitmap apply(@NonNull Bitmap backgroundImg, @Nullable Bitmap outputBitmap)
+            throws WatermarkException {
+        if (isInvisible && isLSB && !LSBWatermarkTask.canHoldPayload(outputBitmap, outputConfig)) {
+            throw new WatermarkInputException(ERROR_LSB_CONFIG);
+        }
+        Bitmap background = resizeBackgroundImg
+                ? resizeBitmap(backgroundImg, MAX_IMAGE_SIZE) : backgroundImg;
+        if (outputBitmap != null && (!outputBitmap.isMutable()
+                || outputBitmap.getWidth() != background.getWidth()
+                || outputBitmap.getHeight() != background.getHeight())) {
+            recycleResized(backgroundImg, background);
+            throw new WatermarkInputException(ERROR_OUTPUT_BITMAP);
+        }
+
+        if (!isInvisible) {
+            // the resized copy is owned by this call, so it can be drawn in place.
+            Bitmap outputImage = createCompositor()
+                    .setInPlace(background != backgroundImg)
+                    .compose(background, outputBitmap);
+            if (outputImage != background) {
+                recycleResized(backgroundImg, background);
+            }
+            return outputImage;
+        }
+
+        Object payload = invisibleTextPayload != null
+                ? invisibleTextPayload : imagePayload(background.getWidth());
+        Bitmap outputImage = embedPayload(background, payload, outputBitmap);
+        recycleResized(backgroundImg, background);
+        if (outputImage == null) {
+            throw new WatermarkCapacityException(ERROR_PIXELS_NOT_ENOUGH);
+        }
+        return outputImage;
+    }
+
+    public boolean isInvisible() {
+        return isInvisible;
+    }
+
+    public boolean isLSB() {
+        return isLSB;
+    }
+
+    /**
+     * create a compositor with the prepared layers and the drawing options.
+     */
+    WatermarkCompositor createCompositor() {
+        return new WatermarkCompositor(context, isTileMode)
+                .setTileSpacing(tileSpacingX, tileSpacingY)
+                .setTileStagger(tileStagger)
+                .setOutputConfig(outputConfig)
+                .addPreparedLayers(layers);
+    }
+
+    /**
+     * The payload of the invisible image, which is scaled
+     * with the width of the background.
+     */
+    private Object imagePayload(int backgroundWidth) {
+        Object payload = invisiblePayloads.get(backgroundWidth);
+        if (payload == null) {
+            Bitmap scaledWMBitmap = TransformBitmapCache.getInstance().get(invisibleImage,
+                    (float) invisibleImageSize, backgroundWidth, 0);
+            payload = createPayload(scaledWMBitmap, null);
+            invisiblePayloads.put(backgroundWidth, payload);
+        }
+        return payload;
+    }
+
+    /**
+     * Create the payload with the same code as the tasks of
+     * {@link WatermarkBuilder}, so a template embeds the same format.
+     */
+    private Object createPayload(@Nullable Bitmap watermarkBitmap, @Nullable WatermarkText watermarkText) {
+        if (!isLSB) {
+            return FDWatermarkTask.createPayload(context, watermarkBitmap, watermarkText);
+        }
+        return bitPlaneLayout != null
+                ? LSBWatermarkTask.createBitPlanePayload(watermarkBitmap, watermarkText, imageFormat)
+                : LSBWatermarkTask.createPayload(watermarkBitmap, watermarkText, imageFormat);
+    }
+
+    /**
+     * Put the payload into the background, as the tasks do.
+     *
+     * @return the watermarked bitmap, or null if the background is too small.
+     */
+    private Bitmap embedPayload(Bitmap background, Object payload, @Nullable Bitmap outputBitmap) {
+        if (!isLSB) {
+            return FDWatermarkTask.embedPayload(background, (int[]) payload, outputBitmap, outputConfig);
+        }
+        return bitPlaneLayout != null
+                ? LSBWatermarkTask.embedBitPlanePayload(background, (byte[]) payload, outputBitmap,
+                        bitPlaneLayout, MetricsRecorder.NONE, ProgressMonitor.NONE)
+                : LSBWatermarkTask.embedPayload(background, (int[]) payload, outputBitmap, outputConfig);
+    }
+
+    /**
+     * Put the resized background back into the pool, if it is a copy.
+     */
+    private static void recycleResized(Bitmap backgroundImg, Bitmap resized) {
+        if (resized != backgroundImg) {
+            BitmapPool.getInstance().put(resized);
+        }
+    }
+
+    /**
+     * The builder of {@link WatermarkTemplate}, it accepts the same
+     * watermark objects and drawing options as {@link WatermarkBuilder}.
+     */
+    public static final class Builder {
+        private final Context context;
+        private boolean isTileMode = false;
+        private int tileSpacingX = 0;
+        private int tileSpacingY = 0;
+        private float tileStagger = 0;
+        private boolean resizeBackgroundImg = true;
+        private Bitmap.Config outputConfig;
+        private boolean isInvisible = false;
+        private boolean isLSB = false;
+        private BitPlaneLayout bitPlaneLayout;
+        private ImagePayload.Format imageFormat = ImagePayload.Format.ARGB;
+
+        private WatermarkImage watermarkImage;
+        private WatermarkText watermarkText;
+        private List<WatermarkText> watermarkTexts = new ArrayList<>();
+        private List<WatermarkImage> watermarkBitmaps = new ArrayList<>();
+
+        public Builder(@NonNull Context context) {
+            this.context = context.getApplicationContext() != null
+                    ? context.getApplicationContext() : context;
+        }
+
+        public Builder loadWatermarkText(@NonNull WatermarkText watermarkString) {
+            this.watermarkText = watermarkString;
+            return this;
+        }
+
+        public Builder loadWatermarkTexts(@NonNull List<WatermarkText> watermarkTexts) {
+            this.watermarkTexts = watermarkTexts;
+            return this;
+        }
+
+        public Builder loadWatermarkImage(@NonNull WatermarkImage watermarkImg) {
+            this.watermarkImage = watermarkImg;
+            return this;
+        }
+
+        public Builder loadWatermarkImages(@NonNull List<WatermarkImage> bitmapList) {
+            this.watermarkBitmaps = bitmapList;
+            return this;
+        }
+
+        public Builder setTileMode(boolean tileMode) {
+            this.isTileMode = tileMode;
+            return this;
+        }
+
+        public Builder setTileSpacing(int horizontal, int vertical) {
+            this.tileSpacingX = horizontal;
+            this.tileSpacingY = vertical;
+            return this;
+        }
+
+        public Builder setTileStagger(@FloatRange(from = 0, to = 1) float stagger) {
+            this.tileStagger = stagger;
+            return this;
+        }
+
+        /**
+         * Whether to resize the backgrounds to {@code MAX_IMAGE_SIZE}
+         * before applying the watermark, the default is true.
+         */
+        public Builder setResizeBackground(boolean resizeBackgroundImg) {
+            this.resizeBackgroundImg = resizeBackgroundImg;
+            return this;
+        }
+
+        /**
+         * Set the config of the output images, the LSB invisible
+         * template only supports {@link Bitmap.Config#ARGB_8888}.
+         *
+         * @see WatermarkBuilder#setOutputConfig(Bitmap.Config)
+         */
+        public Builder setOutputConfig(@NonNull Bitmap.Config outputConfig) {
+            this.outputConfig = outputConfig;
+            return this;
+        }
+
+        /**
+         * Build an invisible watermark template, it must contain
+         * exactly one image or text.
+         *
+         * @param isLSB use the LSB algorithm, or the frequency domain.
+         */
+        public Builder setInvisible(boolean isLSB) {
+            this.isInvisible = true;
+            this.isLSB = isLSB;
+            return this;
+        }
+
+        /**
+         * Use the bit-plane LSB watermark of the layout, it is only used by
+         * an LSB invisible template.
+         *
+         * @param layout the {@link BitPlaneLayout}, null for the decimal digits.
+         * @see WatermarkBuilder#setBitPlaneLayout(BitPlaneLayout)
+         */
+        public Builder setBitPlaneLayout(@Nullable BitPlaneLayout layout) {
+            this.bitPlaneLayout = layout;
+            return this;
+        }
+
+        /**
+         * Set how the image of an LSB invisible template is packed, before
+         * it is deflated.
+         *
+         * @param format the {@link ImagePayload.Format}, it is ARGB by default.
+         * @see WatermarkBuilder#setImagePayloadFormat(ImagePayload.Format)
+         */
+        public Builder setImagePayloadFormat(@NonNull ImagePayload.Format format) {
+            this.imageFormat = format;
+            return this;
+        }
+
+        /**
+         * Compile the template, the watermark objects are copied, so they
+         * can be changed or reused after this call.
+         *
+         * @throws WatermarkInputException if there is no watermark, or more than
+         *                                 one watermark in an invisible template.
+         */
+        @NonNull
+        public WatermarkTemplate build() throws WatermarkInputException {
+            return new WatermarkTemplate(this);
+        }
+
+        private List<WatermarkObject<?>> collectObjects() {
+            List<WatermarkObject<?>> objects = new ArrayList<>();
+            if (watermarkImage != null) {
+                objects.add(watermarkImage);
+            }
+            addAllNonNull(objects, watermarkBitmaps);
+            if (watermarkText != null) {
+                objects.add(watermarkText);
+            }
+            addAllNonNull(objects, watermarkTexts);
+            return objects;
+        }
+
+        private static void addAllNonNull(List<WatermarkObject<?>> objects,
+                                          List<? extends WatermarkObject<?>> list) {
+            if (list != null) {
+                for (WatermarkObject<?> object : list) {
+                    if (object != null) {
+                        objects.add(object);
+                    }
+                }
+            }
+        }
+    }
+}
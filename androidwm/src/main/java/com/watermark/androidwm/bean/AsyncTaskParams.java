@@ -19,6 +19,10 @@ package com.watermark.androidwm.bean;
 import android.content.Context;
 import android.graphics.Bitmap;
 
+import com.watermark.androidwm.core.BitPlaneLayout;
+import com.watermark.androidwm.core.ImagePayload;
+import com.watermark.androidwm.utils.MetricsRecorder;
+
 /**
  * This is a simple class that can help we put multiple primitive
  * parameters into the task.
@@ -30,6 +34,11 @@ public class AsyncTaskParams {
     private WatermarkText watermarkText;
     private Bitmap watermarkImg;
     private Context context;
+    private Bitmap outputBitmap;
+    private Bitmap.Config outputConfig;
+    private MetricsRecorder metricsRecorder = MetricsRecorder.NONE;
+    private BitPlaneLayout bitPlaneLayout;
+    private ImagePayload.Format imageFormat = ImagePayload.Format.ARGB;
 
     public AsyncTaskParams(Context context, Bitmap backgroundImg, WatermarkText watermarkText, Bitmap watermarkImg) {
         this.backgroundImg = backgroundImg;
@@ -84,4 +93,65 @@ public class AsyncTaskParams {
     public void setContext(Context context) {
         this.context = context;
     }
-}
\ No newline at end of file
+
+    public Bitmap getOutputBitmap() {
+        return outputBitmap;
+    }
+
+    /**
+     * @param outputBitmap a mutable bitmap with the same size of the
+     *                     background, the result will be rendered into it.
+     */
+    public AsyncTaskParams setOutputBitmap(Bitmap outputBitmap) {
+        this.outputBitmap = outputBitmap;
+        return this;
+    }
+
+    public Bitmap.Config getOutputConfig() {
+        return outputConfig;
+    }
+
+    /**
+     * @param outputConfig the config of the output bitmap, if it is null,
+     *                     the config of the background will be used.
+     */
+    public AsyncTaskParams setOutputConfig(Bitmap.Config outputConfig) {
+        this.outputConfig = outputConfig;
+        return this;
+    }
+
+    public MetricsRecorder getMetricsRecorder() {
+        return metricsRecorder;
+    }
+
+    public AsyncTaskParams setMetricsRecorder(MetricsRecorder metricsRecorder) {
+        this.metricsRecorder = metricsRecorder;
+        return this;
+    }
+
+    public BitPlaneLayout getBitPlaneLayout() {
+        return bitPlaneLayout;
+    }
+
+    /**
+     * @param bitPlaneLayout the layout of the bit-plane LSB watermark, if it
+     *                       is null, the decimal digits are replaced.
+     */
+    public AsyncTaskParams setBitPlaneLayout(BitPlaneLayout bitPlaneLayout) {
+        this.bitPlaneLayout = bitPlaneLayout;
+        return this;
+    }
+
+    public ImagePayload.Format getImageFormat() {
+        return imageFormat;
+    }
+
+    /**
+     * @param imageFormat how the pixels of an image watermark are packed
+     *                    into the LSB payload.
+     */
+    public AsyncTaskParams setImageFormat(ImagePayload.Format imageFormat) {
+        this.imageFormat = imageFormat;
+        return this;
+    }
+}
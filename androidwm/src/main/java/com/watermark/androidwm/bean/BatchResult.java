@@ -0,0 +1,53 @@
+/*
+ *    Copyright 2018 Yizheng Huang
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package com.watermark.androidwm.bean;
+
+/**
+ * The aggregate result of a {@link com.watermark.androidwm.WatermarkBatch}.
+ *
+ * @author huangyz0918 (huangyz0918@gmail.com)
+ */
+public class BatchResult {
+    private final int totalCount;
+    private final int successCount;
+    private final long elapsedTime;
+
+    public BatchResult(int totalCount, int successCount, long elapsedTime) {
+        this.totalCount = totalCount;
+        this.successCount = successCount;
+        this.elapsedTime = elapsedTime;
+    }
+
+    public int getTotalCount() {
+        return totalCount;
+    }
+
+    public int getSuccessCount() {
+        return successCount;
+    }
+
+    public int getFailureCount() {
+        return totalCount - successCount;
+    }
+
+    /**
+     * @return the wall time of the whole batch, in milliseconds.
+     */
+    public long getElapsedTime() {
+        return elapsedTime;
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ *    Copyright 2018 Yizheng Huang
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package com.watermark.androidwm.core;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * The bit-plane detection algorithm on a {@link PixelBuffer}, the reverse
+ * of the {@link BitPlaneEmbedder}. The low bits of the channels are
+ * collected until the {@link PayloadHeader}, and then the data it
+ * describes, is complete, so the pixels after the payload are never read.
+ *
+ * @author huangyz0918 (huangyz0918@gmail.com)
+ */
+public final class BitPlaneDetector {
+
+    private BitPlaneDetector() {
+    }
+
+    /**
+     * Detect the bit-plane watermark, the layout must be the one of the embedding.
+     *
+     * @return the result, or null if there is no watermark.
+     */
+    public static LSBDetector.Result detect(PixelBuffer marked, BitPlaneLayout layout) {
+        return detect(marked, layout, ProgressMonitor.NONE);
+    }
+
+    /**
+     * The same as {@link #detect(PixelBuffer, BitPlaneLayout)}, the monitor
+     * is checked and notified after every row stripe.
+     *
+     * @throws java.util.concurrent.CancellationException if the monitor is cancelled.
+     */
+    public static LSBDetector.Result detect(PixelBuffer marked, BitPlaneLayout layout,
+                                            ProgressMonitor monitor) {
+        Reader reader = new Reader(layout, marked.getPixelCount());
+        Stripes.readRows(marked, reader, monitor);
+        return reader.getResult();
+    }
+
+    /**
+     * The same as {@link #detect(PixelBuffer, BitPlaneLayout, ProgressMonitor)},
+     * the data after the header is read in parallel on the pool.
+     *
+     * @throws java.util.concurrent.CancellationException if the monitor is cancelled.
+     */
+    public static LSBDetector.Result detect(PixelBuffer marked, BitPlaneLayout layout,
+                                            ForkJoinPool pool, ProgressMonitor monitor) {
+        return detect(Stripes.rows(marked), layout, pool, monitor);
+    }
+
+    /**
+     * Detect the bit-plane watermark in the rows. The header is read in the
+     * calling thread, up to the end of its row stripe. Then every stripe of
+     * the data is read on the pool, straight into its own bytes: a stripe
+     * has 16 rows, so it always starts at a byte boundary, and the stripes
+     * never share a byte.
+     *
+     * @return the result, or null if there is no watermark.
+     * @throws java.util.concurrent.CancellationException if the monitor is cancelled.
+     */
+    public static LSBDetector.Result detect(final RowSource rows, BitPlaneLayout layout,
+                                            ForkJoinPool pool, ProgressMonitor monitor) {
+        final int width = rows.getWidth();
+        final int height = rows.getHeight();
+        final Reader reader = new Reader(layout, (long) width * height);
+        int[] row = new int[width];
+        int headerRows = 0;
+        while (headerRows < height && !reader.isFinished()
+                && (reader.header == null || headerRows % Stripes.STRIPE_HEIGHT != 0)) {
+            if (headerRows % Stripes.STRIPE_HEIGHT == 0) {
+                Stripes.checkCancelled(monitor);
+            }
+            rows.getRow(headerRows++, row);
+            reader.readRow(row, 0, width);
+        }
+        if (reader.isFinished() || headerRows == height) {
+            return reader.getResult();
+        }
+
+        final long bitsPerPixel = reader.shifts.length * reader.bits;
+        final int firstStripe = headerRows / Stripes.STRIPE_HEIGHT;
+        int lastStripe = (int) ((reader.needed - 1) / bitsPerPixel / width / Stripes.STRIPE_HEIGHT);
+        Stripes.forEach(pool, lastStripe - firstStripe + 1, new Stripes.Body() {
+            @Override
+            public void run(int stripe) {
+                int top = (firstStripe + stripe) * Stripes.STRIPE_HEIGHT;
+                int bottom = Math.min(height, top + Stripes.STRIPE_HEIGHT);
+                int[] stripeRow = new int[width];
+                int bit = (int) (top * width * bitsPerPixel);
+                for (int y = top; y < bottom; y++) {
+                    rows.getRow(y, stripeRow);
+                    for (int x = 0; x < width; x++) {
+                        for (int shift : reader.shifts) {
+                            if (bit >= reader.needed) {
+                                return;
+                            }
+                            writeBits(reader.data, bit, (stripeRow[x] >>> shift) & reader.mask, reader.bits);
+                            bit += reader.bits;
+                        }
+                    }
+                }
+            }
+        }, monitor);
+        reader.bit = reader.needed;
+        reader.onComplete();
+        return reader.getResult();
+    }
+
+    /**
+     * The row kernel of the bit-plane detection. It is finished as soon as
+     * the header is invalid, or the data is complete.
+     */
+    public static final class Reader implements RowReader {
+        private final int[] shifts;
+        private final int bits;
+        private final int mask;
+        private final long capacity;
+        // one more byte for the bits of the last channel after the end.
+        private byte[] data = new byte[PayloadHeader.SIZE + 1];
+        private int needed = PayloadHeader.SIZE * 8;
+        private int bit;
+        private PayloadHeader header;
+        private LSBDetector.Result result;
+        private boolean isFinished;
+
+        /**
+         * @param pixelCount the number of the pixels of the image, the length
+         *                   in the header must fit in it.
+         */
+        public Reader(BitPlaneLayout layout, long pixelCount) {
+            this.shifts = layout.shifts();
+            this.bits = layout.getBitsPerChannel();
+            this.mask = (1 << bits) - 1;
+            this.capacity = layout.getCapacity(pixelCount);
+            this.isFinished = capacity < PayloadHeader.SIZE;
+        }
+
+        @Override
+        public void readRow(int[] pixels, int offset, int width) {
+            for (int x = 0; x < width && !isFinished; x++) {
+                int color = pixels[offset + x];
+                for (int i = 0; i < shifts.length && !isFinished; i++) {
+                    writeBits(data, bit, (color >>> shifts[i]) & mask, bits);
+                    bit += bits;
+                    if (bit >= needed) {
+                        onComplete();
+                    }
+                }
+            }
+        }
+
+        @Override
+        public boolean isFinished() {
+            return isFinished;
+        }
+
+        /**
+         * @return the result, or null if there is no valid payload.
+         */
+        public LSBDetector.Result getResult() {
+            return result;
+        }
+
+        /**
+         * The header or the data is complete.
+         */
+        private void onComplete() {
+            if (header == null) {
+                header = PayloadHeader.parse(data);
+                if (header == null || PayloadHeader.SIZE + (long) header.getLength() > capacity) {
+                    isFinished = true;
+                    return;
+                }
+                data = Arrays.copyOf(data, PayloadHeader.SIZE + header.getLength() + 1);
+                needed = (PayloadHeader.SIZE + header.getLength()) * 8;
+                if (bit < needed) {
+                    return;
+                }
+            }
+            isFinished = true;
+            if (header.verify(data, PayloadHeader.SIZE)) {
+                result = new LSBDetector.Result(Arrays.copyOfRange(data, PayloadHeader.SIZE,
+                        PayloadHeader.SIZE + header.getLength()),
+                        header.getType() == PayloadHeader.TYPE_IMAGE);
+            }
+        }
+    }
+
+    /**
+     * Write the low {@code count} bits of the value from the bit index of
+     * the data, the high bit first.
+     */
+    private static void writeBits(byte[] data, int bit, int value, int count) {
+        for (int i = count - 1; i >= 0; i--, bit++) {
+            if ((value >> i & 1) != 0) {
+                data[bit >>> 3] |= 0x80 >>> (bit & 7);
+            }
+        }
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ *    Copyright 2018 Yizheng Huang
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package com.watermark.androidwm.core;
+
+import java.nio.charset.Charset;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * The bit-plane embedding algorithm on a {@link PixelBuffer}. The bits of
+ * the payload replace the low bits of the channels chosen by a
+ * {@link BitPlaneLayout}, with bit operations only, so every pixel holds
+ * {@link BitPlaneLayout#getBitsPerPixel()} bits of the payload, instead of
+ * the four decimal digits of the {@link LSBEmbedder}. The payload is written
+ * once from the first pixel, the pixels after it are not changed.
+ *
+ * @author huangyz0918 (huangyz0918@gmail.com)
+ */
+public final class BitPlaneEmbedder {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private BitPlaneEmbedder() {
+    }
+
+    /**
+     * Convert a watermark string into the payload bytes, with the {@link PayloadHeader}.
+     *
+     * @param watermarkString the text of the watermark.
+     * @param isImage         the type in the header.
+     */
+    public static byte[] createPayload(String watermarkString, boolean isImage) {
+        return createPayload(watermarkString.getBytes(UTF_8), isImage);
+    }
+
+    /**
+     * Frame the raw bytes of a watermark with the {@link PayloadHeader}.
+     *
+     * @param data    the UTF-8 text, or the {@link ImagePayload} of an image.
+     * @param isImage the type in the header.
+     */
+    public static byte[] createPayload(byte[] data, boolean isImage) {
+        return PayloadHeader.frame(isImage ? PayloadHeader.TYPE_IMAGE : PayloadHeader.TYPE_TEXT, data);
+    }
+
+    /**
+     * Embed the payload into the source, and write the result into the target.
+     * The target can be the source itself.
+     *
+     * @return false if the source doesn't have enough bits for the payload.
+     */
+    public static boolean embed(PixelBuffer source, byte[] payload, PixelBuffer target,
+                                BitPlaneLayout layout) {
+        return embed(source, payload, target, layout, ProgressMonitor.NONE);
+    }
+
+    /**
+     * The same as {@link #embed(PixelBuffer, byte[], PixelBuffer, BitPlaneLayout)},
+     * the monitor is checked and notified after every row stripe.
+     *
+     * @throws java.util.concurrent.CancellationException if the monitor is cancelled.
+     */
+    public static boolean embed(PixelBuffer source, byte[] payload, PixelBuffer target,
+                                BitPlaneLayout layout, ProgressMonitor monitor) {
+        Writer writer = newWriter(payload, source.getPixelCount(), layout);
+        if (writer == null) {
+            return false;
+        }
+        Stripes.writeRows(source, target, writer, monitor);
+        return true;
+    }
+
+    /**
+     * The same as {@link #embed(PixelBuffer, byte[], PixelBuffer, BitPlaneLayout, ProgressMonitor)},
+     * the row stripes are written in parallel on the pool. The result is the
+     * same for any number of threads.
+     *
+     * @throws java.util.concurrent.CancellationException if the monitor is cancelled.
+     */
+    public static boolean embed(PixelBuffer source, byte[] payload, PixelBuffer target,
+                                BitPlaneLayout layout, ForkJoinPool pool, ProgressMonitor monitor) {
+        Writer writer = newWriter(payload, source.getPixelCount(), layout);
+        if (writer == null) {
+            return false;
+        }
+        Stripes.writeRows(source, target, writer, pool, monitor);
+        return true;
+    }
+
+    /**
+     * Create the row kernel of the payload, for an image of the pixel count.
+     *
+     * @return the writer, or null if the image doesn't have enough bits for the payload.
+     */
+    public static Writer newWriter(byte[] payload, long pixelCount, BitPlaneLayout layout) {
+        return payload.length > layout.getCapacity(pixelCount) ? null : new Writer(payload, layout);
+    }
+
+    /**
+     * The row kernel of the bit-plane embedding, it replaces the low bits
+     * of the channels of the packed colors in place.
+     */
+    public static final class Writer implements RowWriter {
+        private final byte[] payload;
+        private final int[] shifts;
+        private final int bits;
+        private final int mask;
+        private final int totalBits;
+        private int bit;
+
+        Writer(byte[] payload, BitPlaneLayout layout) {
+            this.payload = payload;
+            this.shifts = layout.shifts();
+            this.bits = layout.getBitsPerChannel();
+            this.mask = (1 << bits) - 1;
+            this.totalBits = payload.length * 8;
+        }
+
+        private Writer(Writer writer, int bit) {
+            this.payload = writer.payload;
+            this.shifts = writer.shifts;
+            this.bits = writer.bits;
+            this.mask = writer.mask;
+            this.totalBits = writer.totalBits;
+            this.bit = bit;
+        }
+
+        @Override
+        public Writer startingAt(long pixelIndex) {
+            return new Writer(this, (int) Math.min(totalBits, pixelIndex * shifts.length * bits));
+        }
+
+        @Override
+        public void writeRow(int[] source, int sourceOffset, int[] target, int targetOffset, int width) {
+            for (int x = 0; x < width; x++) {
+                int color = source[sourceOffset + x];
+                for (int i = 0; i < shifts.length && bit < totalBits; i++) {
+                    color = color & ~(mask << shifts[i]) | readBits(payload, bit, bits) << shifts[i];
+                    bit += bits;
+                }
+                target[targetOffset + x] = color;
+            }
+        }
+    }
+
+    /**
+     * Read {@code count} bits from the bit index of the data, the high bit
+     * first, the bits after the end of the data are zero.
+     */
+    private static int readBits(byte[] data, int bit, int count) {
+        int value = 0;
+        int end = bit + count;
+        for (; bit < end; bit++) {
+            value <<= 1;
+            if (bit >>> 3 < data.length) {
+                value |= (data[bit >>> 3] >> (7 - (bit & 7))) & 1;
+            }
+        }
+        return value;
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ *    Copyright 2018 Yizheng Huang
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package com.watermark.androidwm.core;
+
+/**
+ * The layout of a bit-plane watermark: how many of the least significant
+ * bits are used in every channel, and which channels are used. The bits
+ * are read and written in the order of A, R, G, B, and inside a channel
+ * from the high bit to the low bit.
+ *
+ * @author huangyz0918 (huangyz0918@gmail.com)
+ */
+public final class BitPlaneLayout {
+    public static final int CHANNEL_BLUE = 1;
+    public static final int CHANNEL_GREEN = 1 << 1;
+    public static final int CHANNEL_RED = 1 << 2;
+    public static final int CHANNEL_ALPHA = 1 << 3;
+    public static final int CHANNELS_RGB = CHANNEL_RED | CHANNEL_GREEN | CHANNEL_BLUE;
+    public static final int CHANNELS_ARGB = CHANNELS_RGB | CHANNEL_ALPHA;
+
+    /**
+     * One bit of every color channel, the alpha is not changed.
+     */
+    public static final BitPlaneLayout DEFAULT = new BitPlaneLayout(1, CHANNELS_RGB);
+
+    private final int bitsPerChannel;
+    private final int channels;
+    private final int[] shifts;
+
+    /**
+     * @param bitsPerChannel the number of the low bits of every used channel, from 1 to 8.
+     * @param channels       the used channels, a combination of the {@code CHANNEL_*} flags.
+     */
+    public BitPlaneLayout(int bitsPerChannel, int channels) {
+        if (bitsPerChannel < 1 || bitsPerChannel > 8) {
+            throw new IllegalArgumentException("The bits per channel must be from 1 to 8: " + bitsPerChannel);
+        }
+        if (channels <= 0 || (channels & ~CHANNELS_ARGB) != 0) {
+            throw new IllegalArgumentException("Invalid channels: " + channels);
+        }
+        this.bitsPerChannel = bitsPerChannel;
+        this.channels = channels;
+        this.shifts = new int[Integer.bitCount(channels)];
+        int index = 0;
+        // the flag of a channel is 1 << (shift / 8), from alpha down to blue.
+        for (int channel = 3; channel >= 0; channel--) {
+            if ((channels & (1 << channel)) != 0) {
+                shifts[index++] = channel * 8;
+            }
+        }
+    }
+
+    public int getBitsPerChannel() {
+        return bitsPerChannel;
+    }
+
+    public int getChannels() {
+        return channels;
+    }
+
+    public int getBitsPerPixel() {
+        return bitsPerChannel * shifts.length;
+    }
+
+    /**
+     * @return the number of the payload bytes which can be put into the pixels.
+     */
+    public long getCapacity(long pixelCount) {
+        return pixelCount * getBitsPerPixel() / 8;
+    }
+
+    /**
+     * The bit shifts of the used channels in a packed color, in the order of A, R, G, B.
+     */
+    int[] shifts() {
+        return shifts;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof BitPlaneLayout)) {
+            return false;
+        }
+        BitPlaneLayout layout = (BitPlaneLayout) o;
+        return bitsPerChannel == layout.bitsPerChannel && channels == layout.channels;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * bitsPerChannel + channels;
+    }
+}
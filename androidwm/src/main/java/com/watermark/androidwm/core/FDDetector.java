@@ -0,0 +1,87 @@
+/*
+ *    Copyright 2018 Yizheng Huang
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package com.watermark.androidwm.core;
+
+import com.watermark.androidwm.utils.FastDctFft;
+
+import static com.watermark.androidwm.utils.Constant.CHUNK_SIZE;
+
+/**
+ * The frequency domain detection on a {@link PixelBuffer}, the image is
+ * transformed by DCT in chunks of {@code CHUNK_SIZE} pixels.
+ *
+ * @author huangyz0918 (huangyz0918@gmail.com)
+ */
+public final class FDDetector {
+
+    private FDDetector() {
+    }
+
+    /**
+     * Detect the FD watermark.
+     *
+     * @return the watermark string, or null if there is no watermark.
+     */
+    public static String detect(PixelBuffer marked) {
+        return detect(marked, ProgressMonitor.NONE);
+    }
+
+    /**
+     * The same as {@link #detect(PixelBuffer)}, the monitor is checked
+     * and notified after every chunk.
+     *
+     * @throws java.util.concurrent.CancellationException if the monitor is cancelled.
+     */
+    public static String detect(PixelBuffer marked, ProgressMonitor monitor) {
+        int[] pixels = marked.toArray();
+
+        // divide and conquer
+        if (pixels.length < CHUNK_SIZE) {
+            Stripes.checkCancelled(monitor);
+            double[] watermarkArray = toDoubles(marked.toChannelArray());
+            FastDctFft.transform(watermarkArray);
+
+            //TODO: do some operations with colorTempArray.
+
+            monitor.onProgress(1, 1);
+        } else {
+            int numOfChunks = (int) Math.ceil((double) pixels.length / CHUNK_SIZE);
+            for (int i = 0; i < numOfChunks; i++) {
+                Stripes.checkCancelled(monitor);
+                int start = i * CHUNK_SIZE;
+                int length = Math.min(pixels.length - start, CHUNK_SIZE);
+                double[] colorTempArray = toDoubles(
+                        new PixelBuffer(pixels, start, length, length, 1).toChannelArray());
+                FastDctFft.transform(colorTempArray);
+
+                //TODO: do some operations with colorTempArray.
+
+                monitor.onProgress(i + 1, numOfChunks);
+            }
+        }
+
+        return null;
+    }
+
+    private static double[] toDoubles(int[] channels) {
+        double[] result = new double[channels.length];
+        for (int i = 0; i < channels.length; i++) {
+            result[i] = channels[i];
+        }
+        return result;
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ *    Copyright 2018 Yizheng Huang
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package com.watermark.androidwm.core;
+
+import com.watermark.androidwm.utils.FastDctFft;
+
+/**
+ * The frequency domain embedding on a {@link PixelBuffer}. The image is
+ * transformed by DCT in chunks of the watermark size (or as a whole if it
+ * is smaller than the watermark), scaled in the frequency domain, and
+ * transformed back.
+ *
+ * @author huangyz0918 (huangyz0918@gmail.com)
+ */
+public final class FDEmbedder {
+
+    private FDEmbedder() {
+    }
+
+    /**
+     * Convert a watermark image into the payload, the channels of the pixels.
+     */
+    public static int[] createPayload(PixelBuffer watermark) {
+        return watermark.toChannelArray();
+    }
+
+    /**
+     * Embed the payload into the source, and write the result into the target.
+     * The target can be the source itself.
+     *
+     * @return false if the source doesn't have enough channels for the payload.
+     */
+    public static boolean embed(PixelBuffer source, int[] watermarkColorArray, PixelBuffer target) {
+        return embed(source, watermarkColorArray, target, ProgressMonitor.NONE);
+    }
+
+    /**
+     * The same as {@link #embed(PixelBuffer, int[], PixelBuffer)}, the monitor
+     * is checked and notified after every chunk.
+     *
+     * @throws java.util.concurrent.CancellationException if the monitor is cancelled.
+     */
+    public static boolean embed(PixelBuffer source, int[] watermarkColorArray, PixelBuffer target,
+                                ProgressMonitor monitor) {
+        int[] backgroundPixels = source.toArray();
+        if (watermarkColorArray.length > backgroundPixels.length * 4) {
+            return false;
+        }
+
+        // divide and conquer
+        // use fixed chunk size or the size of watermark image.
+        if (backgroundPixels.length < watermarkColorArray.length) {
+            Stripes.checkCancelled(monitor);
+            double[] backgroundColorArrayD = toDoubles(source.toChannelArray());
+
+            FastDctFft.transform(backgroundColorArrayD);
+
+            //TODO: do the operations.
+
+            FastDctFft.inverseTransform(backgroundColorArrayD);
+            fromDoubles(backgroundColorArrayD, backgroundPixels, 0, backgroundPixels.length);
+            monitor.onProgress(1, 1);
+        } else {
+            int numOfChunks = (int) Math.ceil((double) backgroundPixels.length / watermarkColorArray.length);
+            for (int i = 0; i < numOfChunks; i++) {
+                Stripes.checkCancelled(monitor);
+                int start = i * watermarkColorArray.length;
+                int length = Math.min(backgroundPixels.length - start, watermarkColorArray.length);
+                double[] colorTempD = toDoubles(
+                        new PixelBuffer(backgroundPixels, start, length, length, 1).toChannelArray());
+                FastDctFft.transform(colorTempD);
+
+                double enhanceNum = 1;
+
+                // The energy in frequency scaled.
+                for (int j = 0; j < colorTempD.length; j++) {
+                    colorTempD[j] = colorTempD[j] * enhanceNum;
+                }
+
+                //TODO: do the operations.
+
+                FastDctFft.inverseTransform(colorTempD);
+                fromDoubles(colorTempD, backgroundPixels, start, length);
+                monitor.onProgress(i + 1, numOfChunks);
+            }
+        }
+
+        target.copyFrom(new PixelBuffer(backgroundPixels, source.getWidth(), source.getHeight()));
+        return true;
+    }
+
+    private static double[] toDoubles(int[] channels) {
+        double[] result = new double[channels.length];
+        for (int i = 0; i < channels.length; i++) {
+            result[i] = channels[i];
+        }
+        return result;
+    }
+
+    private static void fromDoubles(double[] channels, int[] pixels, int start, int length) {
+        for (int j = 0; j < length; j++) {
+            pixels[start + j] = PixelBuffer.argb(
+                    (int) channels[4 * j],
+                    (int) channels[4 * j + 1],
+                    (int) channels[4 * j + 2],
+                    (int) channels[4 * j + 3]);
+        }
+    }
+}
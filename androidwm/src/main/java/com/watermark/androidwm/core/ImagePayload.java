@@ -0,0 +1,236 @@
+/*
+ *    Copyright 2018 Yizheng Huang
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package com.watermark.androidwm.core;
+
+import java.io.ByteArrayOutputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * The compact binary form of an image watermark. The pixels are packed
+ * into raw bytes in one of the {@link Format}s and deflated, behind a
+ * small header:
+ * <pre>
+ * offset  size  field
+ *      0     2  magic, 0x89 'W'
+ *      2     1  format
+ *      3     4  width, big-endian
+ *      7     4  height, big-endian
+ *     11     -  the deflated pixels
+ * </pre>
+ * The first byte is not ASCII, so the bytes can't be confused with the
+ * Base64 string of a PNG, which was embedded by the older versions.
+ *
+ * @author huangyz0918 (huangyz0918@gmail.com)
+ */
+public final class ImagePayload {
+    public static final int MAGIC = 0x8957;
+    public static final int HEADER_SIZE = 11;
+    private static final int MAX_RAW_SIZE = 64 * 1024 * 1024;
+    private static final int BUFFER_SIZE = 4096;
+
+    /**
+     * How the pixels are packed before they are deflated.
+     */
+    public enum Format {
+        /**
+         * 4 bytes per pixel, A, R, G, B, lossless.
+         */
+        ARGB,
+        /**
+         * 1 byte of the luminance per pixel, composited over white, the
+         * decoded pixels are opaque.
+         */
+        GRAY,
+        /**
+         * 1 bit per pixel, set for the dark opaque pixels, every row starts
+         * at a new byte. The decoded pixels are black or transparent.
+         */
+        MONO
+    }
+
+    private ImagePayload() {
+    }
+
+    /**
+     * Pack and deflate the image.
+     */
+    public static byte[] encode(PixelBuffer image, Format format) {
+        byte[] raw = pack(image, format);
+        ByteArrayOutputStream output = new ByteArrayOutputStream(HEADER_SIZE + raw.length / 4);
+        output.write(MAGIC >>> 8);
+        output.write(MAGIC & 0xFF);
+        output.write(format.ordinal());
+        writeInt(output, image.getWidth());
+        writeInt(output, image.getHeight());
+
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        try {
+            deflater.setInput(raw);
+            deflater.finish();
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while (!deflater.finished()) {
+                output.write(buffer, 0, deflater.deflate(buffer));
+            }
+        } finally {
+            deflater.end();
+        }
+        return output.toByteArray();
+    }
+
+    /**
+     * @return true if the bytes start with the header of a compact image.
+     */
+    public static boolean isCompact(byte[] bytes) {
+        return bytes.length >= HEADER_SIZE
+                && ((bytes[0] & 0xFF) << 8 | bytes[1] & 0xFF) == MAGIC;
+    }
+
+    /**
+     * Rebuild the image from the compact bytes.
+     *
+     * @return the image, or null if the bytes are not a valid compact image.
+     */
+    public static PixelBuffer decode(byte[] bytes) {
+        if (!isCompact(bytes) || bytes[2] < 0 || bytes[2] >= Format.values().length) {
+            return null;
+        }
+        Format format = Format.values()[bytes[2]];
+        int width = readInt(bytes, 3);
+        int height = readInt(bytes, 7);
+        if (width <= 0 || height <= 0 || rawSize(width, height, format) > MAX_RAW_SIZE) {
+            return null;
+        }
+
+        byte[] raw = new byte[(int) rawSize(width, height, format)];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(bytes, HEADER_SIZE, bytes.length - HEADER_SIZE);
+            int length = 0;
+            while (length < raw.length) {
+                int count = inflater.inflate(raw, length, raw.length - length);
+                if (count == 0 && (inflater.finished() || inflater.needsInput()
+                        || inflater.needsDictionary())) {
+                    return null;
+                }
+                length += count;
+            }
+        } catch (DataFormatException e) {
+            return null;
+        } finally {
+            inflater.end();
+        }
+        return unpack(raw, width, height, format);
+    }
+
+    /**
+     * The size of the packed pixels in bytes.
+     */
+    static long rawSize(int width, int height, Format format) {
+        switch (format) {
+            case GRAY:
+                return (long) width * height;
+            case MONO:
+                return (long) ((width + 7) >>> 3) * height;
+            default:
+                return 4L * width * height;
+        }
+    }
+
+    private static byte[] pack(PixelBuffer image, Format format) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        byte[] raw = new byte[(int) rawSize(width, height, format)];
+        int rowBytes = (width + 7) >>> 3;
+        int index = 0;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int color = image.getPixel(x, y);
+                switch (format) {
+                    case GRAY:
+                        raw[index++] = (byte) overWhite(color);
+                        break;
+                    case MONO:
+                        if (PixelBuffer.alpha(color) >= 0x80 && luminance(color) < 0x80) {
+                            raw[y * rowBytes + (x >>> 3)] |= 0x80 >>> (x & 7);
+                        }
+                        break;
+                    default:
+                        raw[index++] = (byte) PixelBuffer.alpha(color);
+                        raw[index++] = (byte) PixelBuffer.red(color);
+                        raw[index++] = (byte) PixelBuffer.green(color);
+                        raw[index++] = (byte) PixelBuffer.blue(color);
+                        break;
+                }
+            }
+        }
+        return raw;
+    }
+
+    private static PixelBuffer unpack(byte[] raw, int width, int height, Format format) {
+        PixelBuffer image = PixelBuffer.allocate(width, height);
+        int[] pixels = image.getPixels();
+        int rowBytes = (width + 7) >>> 3;
+        int index = 0;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int color;
+                switch (format) {
+                    case GRAY:
+                        color = 0xFF000000 | (raw[index] & 0xFF) * 0x010101;
+                        break;
+                    case MONO:
+                        color = (raw[y * rowBytes + (x >>> 3)] & 0x80 >>> (x & 7)) != 0
+                                ? 0xFF000000 : 0;
+                        break;
+                    default:
+                        color = PixelBuffer.argb(raw[4 * index] & 0xFF, raw[4 * index + 1] & 0xFF,
+                                raw[4 * index + 2] & 0xFF, raw[4 * index + 3] & 0xFF);
+                        break;
+                }
+                pixels[index++] = color;
+            }
+        }
+        return image;
+    }
+
+    /**
+     * The BT.601 luminance, with integer weights.
+     */
+    private static int luminance(int color) {
+        return (77 * PixelBuffer.red(color) + 150 * PixelBuffer.green(color)
+                + 29 * PixelBuffer.blue(color)) >> 8;
+    }
+
+    private static int overWhite(int color) {
+        int alpha = PixelBuffer.alpha(color);
+        return (luminance(color) * alpha + 0xFF * (0xFF - alpha) + 127) / 0xFF;
+    }
+
+    private static void writeInt(ByteArrayOutputStream output, int value) {
+        output.write(value >>> 24);
+        output.write(value >>> 16 & 0xFF);
+        output.write(value >>> 8 & 0xFF);
+        output.write(value & 0xFF);
+    }
+
+    private static int readInt(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xFF) << 24 | (bytes[offset + 1] & 0xFF) << 16
+                | (bytes[offset + 2] & 0xFF) << 8 | bytes[offset + 3] & 0xFF;
+    }
+}
@@ -0,0 +1,720 @@
+/*
+ *    Copyright 2018 Yizheng Huang
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package com.watermark.androidwm.core;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+import static com.watermark.androidwm.utils.Constant.LSB_IMG_PREFIX_FLAG;
+import static com.watermark.androidwm.utils.Constant.LSB_IMG_SUFFIX_FLAG;
+import static com.watermark.androidwm.utils.Constant.LSB_TEXT_PREFIX_FLAG;
+import static com.watermark.androidwm.utils.Constant.LSB_TEXT_SUFFIX_FLAG;
+
+/**
+ * The LSB detection algorithm on a {@link PixelBuffer}. The last decimal
+ * digit of every channel is read (9 is read as 0), and the payload is
+ * taken from the first text (or image) flags, see {@link Scanner}.
+ *
+ * @author huangyz0918 (huangyz0918@gmail.com)
+ */
+public final class LSBDetector {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int[] TEXT_PREFIX_DIGITS = PayloadCodec.stringToDigits(LSB_TEXT_PREFIX_FLAG);
+    private static final int[] TEXT_SUFFIX_DIGITS = PayloadCodec.stringToDigits(LSB_TEXT_SUFFIX_FLAG);
+    private static final int[] IMG_PREFIX_DIGITS = PayloadCodec.stringToDigits(LSB_IMG_PREFIX_FLAG);
+    private static final int[] IMG_SUFFIX_DIGITS = PayloadCodec.stringToDigits(LSB_IMG_SUFFIX_FLAG);
+
+    private LSBDetector() {
+    }
+
+    /**
+     * The decoded payload bytes.
+     */
+    public static final class Result {
+        private final byte[] data;
+        private final boolean isImage;
+        private final double confidence;
+
+        Result(byte[] data, boolean isImage) {
+            this(data, isImage, 1);
+        }
+
+        Result(byte[] data, boolean isImage, double confidence) {
+            this.data = data;
+            this.isImage = isImage;
+            this.confidence = confidence;
+        }
+
+        /**
+         * @return the UTF-8 text, or the Base64 string of an image from
+         * the older versions.
+         */
+        public String getWatermarkString() {
+            return new String(data, UTF_8);
+        }
+
+        /**
+         * @return the raw bytes of the payload, for an image they are
+         * usually an {@link ImagePayload}.
+         */
+        public byte[] getData() {
+            return data;
+        }
+
+        public boolean isImage() {
+            return isImage;
+        }
+
+        /**
+         * @return the share of the votes of the copies which agree with the
+         * decoded bits, from 0.5 to 1. It is 1 if only one copy is read.
+         */
+        public double getConfidence() {
+            return confidence;
+        }
+    }
+
+    /**
+     * Detect the LSB watermark.
+     *
+     * @return the result, or null if there is no watermark.
+     */
+    public static Result detect(PixelBuffer marked) {
+        return detect(marked, ProgressMonitor.NONE);
+    }
+
+    /**
+     * The same as {@link #detect(PixelBuffer)}, the monitor is checked
+     * and notified after every row stripe.
+     *
+     * @throws java.util.concurrent.CancellationException if the monitor is cancelled.
+     */
+    public static Result detect(PixelBuffer marked, ProgressMonitor monitor) {
+        Scanner scanner = new Scanner();
+        Stripes.readRows(marked, scanner, monitor);
+        return scanner.getResult();
+    }
+
+    /**
+     * The same as {@link #detect(PixelBuffer, ProgressMonitor)}, the copies
+     * of the payload are decoded with a {@link Voter} in the calling thread.
+     *
+     * @param minAgreeingCopies the lead of the majority of every bit to stop at.
+     */
+    public static Result detect(PixelBuffer marked, int minAgreeingCopies, ProgressMonitor monitor) {
+        return new Voter(Stripes.rows(marked), minAgreeingCopies).vote(null, monitor);
+    }
+
+    /**
+     * The same as {@link #detect(PixelBuffer, int, ProgressMonitor)}, the
+     * row stripes after the first one are voted in parallel on the pool.
+     */
+    public static Result detect(PixelBuffer marked, int minAgreeingCopies, ForkJoinPool pool,
+                                ProgressMonitor monitor) {
+        return detect(Stripes.rows(marked), minAgreeingCopies, pool, monitor);
+    }
+
+    /**
+     * The same as {@link #detect(PixelBuffer, int, ForkJoinPool, ProgressMonitor)},
+     * only the rows which are needed are copied out of the source.
+     */
+    public static Result detect(RowSource rows, int minAgreeingCopies, ForkJoinPool pool,
+                                ProgressMonitor monitor) {
+        return new Voter(rows, minAgreeingCopies).vote(pool, monitor);
+    }
+
+    /**
+     * The streaming LSB detection. The last digit of every channel (in the
+     * order of A, R, G, B) goes through a small state machine: it looks for
+     * the first text or image prefix flag, packs the binary digits after it
+     * into bytes, and stops at its suffix flag. Only the payload is kept,
+     * and the pixels after the first copy are never read.
+     */
+    public static final class Scanner implements RowReader {
+        private static final int FLAG_MODULUS = (int) Math.pow(10, LSB_TEXT_PREFIX_FLAG.length());
+        private static final int TEXT_PREFIX = Integer.parseInt(LSB_TEXT_PREFIX_FLAG);
+        private static final int TEXT_SUFFIX = Integer.parseInt(LSB_TEXT_SUFFIX_FLAG);
+        private static final int IMG_PREFIX = Integer.parseInt(LSB_IMG_PREFIX_FLAG);
+        private static final int IMG_SUFFIX = Integer.parseInt(LSB_IMG_SUFFIX_FLAG);
+
+        // the last digits, as a decimal number of the length of a flag.
+        private int window;
+        // the index of the next digit, and of the first digit of the prefix.
+        private long channel;
+        private long start;
+        // the suffix of the current payload, 0 while looking for a prefix.
+        private int suffix;
+        // the number of the digits after the payload, they must be the suffix.
+        private int suffixLength;
+        private byte[] bytes = new byte[64];
+        private int bitCount;
+        private Result result;
+
+        public Scanner() {
+        }
+
+        /**
+         * @param channel the index of the first digit, a voter starts
+         *                scanning again in the middle of the image.
+         */
+        Scanner(long channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public void readRow(int[] pixels, int offset, int width) {
+            for (int x = 0; x < width && result == null; x++) {
+                int color = pixels[offset + x];
+                for (int shift = 24; shift >= 0 && result == null; shift -= 8) {
+                    int digit = (color >>> shift & 0xFF) % 10;
+                    // the only case is 0 - 1 = 9, so, we need to replace all nines to zero.
+                    accept(digit == 9 ? 0 : digit);
+                }
+            }
+        }
+
+        @Override
+        public boolean isFinished() {
+            return result != null;
+        }
+
+        /**
+         * @return the result, or null if no complete payload is found.
+         */
+        public Result getResult() {
+            return result;
+        }
+
+        private void accept(int digit) {
+            window = (window * 10 + digit) % FLAG_MODULUS;
+            channel++;
+            if (suffix == 0) {
+                if (window == TEXT_PREFIX || window == IMG_PREFIX) {
+                    start = channel - LSB_TEXT_PREFIX_FLAG.length();
+                    suffix = window == TEXT_PREFIX ? TEXT_SUFFIX : IMG_SUFFIX;
+                    suffixLength = 0;
+                    bitCount = 0;
+                    window = 0;
+                }
+            } else if (digit <= 1 && suffixLength == 0) {
+                appendBit(digit);
+            } else if (++suffixLength == LSB_TEXT_SUFFIX_FLAG.length()) {
+                if (window == suffix) {
+                    result = new Result(Arrays.copyOf(bytes, bitCount / 8), suffix == IMG_SUFFIX);
+                } else {
+                    // not a flag, look for the next prefix.
+                    suffix = 0;
+                }
+            }
+        }
+
+        /**
+         * The bit of the payload, the high bit of the first byte first.
+         */
+        private int bitAt(int index) {
+            return bytes[index >>> 3] >> (7 - (index & 7)) & 1;
+        }
+
+        private void appendBit(int bit) {
+            int index = bitCount >>> 3;
+            if (index == bytes.length) {
+                bytes = Arrays.copyOf(bytes, bytes.length * 2);
+            }
+            if (bit != 0) {
+                bytes[index] |= 0x80 >>> (bitCount & 7);
+            } else {
+                bytes[index] &= ~(0x80 >>> (bitCount & 7));
+            }
+            bitCount++;
+        }
+    }
+
+    /**
+     * The majority vote over the copies of the payload. The embedder writes
+     * the copies one after another from the first channel, but the image
+     * may be cropped, so the copies are found by their flags:
+     * <ul>
+     * <li>the first copy is the first one which a {@link Scanner} finds, or
+     * the copy at the first channel if the flags of the first two copies
+     * match by a majority of their digits, as every copy may be damaged.</li>
+     * <li>every next copy is expected right after the previous one, it is
+     * voted if most of the digits of its flags match, otherwise it is cut
+     * by the crop, and the next copy is searched with a Scanner again.</li>
+     * </ul>
+     * A digit of 0 or 1 is a vote for its bit, any other digit (a damaged
+     * one) is not counted. The rows are read in the calling thread up to
+     * the end of the stripe of the first copy, and every copy is checked
+     * there. Then the next stripes are voted on the pool in waves, the first
+     * one has a single stripe, and every next one as many stripes as are
+     * voted so far, each stripe votes the copies which start in it into its
+     * own counters. The voter stops as soon as the majority of every bit
+     * leads by the minimum number of agreeing copies, or the image ends.
+     * A tie is decided by the first copy. The waves don't depend on the
+     * pool, so neither does the result.
+     */
+    public static final class Voter {
+        private static final int FLAG_LENGTH = LSB_TEXT_PREFIX_FLAG.length();
+
+        private final RowSource rows;
+        private final int minAgreeingCopies;
+        private final int width;
+        private final int height;
+        private final long channels;
+        private final long stripeChannels;
+
+        /**
+         * @param rows              the rows of the marked image.
+         * @param minAgreeingCopies the lead of the majority of every bit to stop at,
+         *                          with 1 only the first copy is read.
+         */
+        public Voter(RowSource rows, int minAgreeingCopies) {
+            if (minAgreeingCopies < 1) {
+                throw new IllegalArgumentException("The min agreeing copies must be positive: "
+                        + minAgreeingCopies);
+            }
+            this.rows = rows;
+            this.minAgreeingCopies = minAgreeingCopies;
+            this.width = rows.getWidth();
+            this.height = rows.getHeight();
+            this.channels = (long) width * height * 4;
+            this.stripeChannels = (long) width * Stripes.STRIPE_HEIGHT * 4;
+        }
+
+        /**
+         * Vote the copies. The monitor is checked before every stripe, and
+         * notified after it (or after a wave of stripes).
+         *
+         * @param pool the pool of the stripes, or null to vote them in the calling thread.
+         * @return the result, or null if there is no copy with matching flags.
+         * @throws java.util.concurrent.CancellationException if the monitor is cancelled.
+         */
+        public Result vote(ForkJoinPool pool, final ProgressMonitor monitor) {
+            final int stripes = Stripes.count(height);
+            Copies copies = readFirstCopies(monitor, stripes);
+            if (copies == null) {
+                return null;
+            }
+
+            final Copies first = copies;
+            final int firstStripe = (int) (first.to / stripeChannels);
+            int[] ones = first.ones;
+            int[] zeros = first.zeros;
+            int copyCount = first.copyCount;
+            ProgressMonitor cancellation = new ProgressMonitor() {
+                @Override
+                public boolean isCancelled() {
+                    return monitor.isCancelled();
+                }
+
+                @Override
+                public void onProgress(int completed, int total) {
+                    // the progress is counted in stripes, after every wave.
+                }
+            };
+
+            int voted = firstStripe;
+            while (voted < stripes && !first.decided && !isDecided(ones, zeros, minAgreeingCopies)) {
+                final int from = voted;
+                final Copies[] wave = new Copies[Math.min(Math.max(1, voted - firstStripe), stripes - voted)];
+                Stripes.Body body = new Stripes.Body() {
+                    @Override
+                    public void run(int stripe) {
+                        wave[stripe] = readStripe(from + stripe, first);
+                    }
+                };
+                if (pool != null) {
+                    Stripes.forEach(pool, wave.length, body, cancellation);
+                } else {
+                    for (int stripe = 0; stripe < wave.length; stripe++) {
+                        Stripes.checkCancelled(monitor);
+                        body.run(stripe);
+                    }
+                }
+                for (Copies stripe : wave) {
+                    merge(stripe.ones, ones);
+                    merge(stripe.zeros, zeros);
+                    copyCount += stripe.copyCount;
+                }
+                voted += wave.length;
+                monitor.onProgress(voted, stripes);
+            }
+            return copyCount == 0 ? null : finish(ones, zeros, first);
+        }
+
+        /**
+         * Look for the first copy from the first row, and vote the copies
+         * up to the end of its row stripe.
+         *
+         * @return the copies, or null if there is no copy.
+         */
+        private Copies readFirstCopies(ProgressMonitor monitor, int stripes) {
+            int[] row = new int[width];
+            Head head = new Head();
+            Scanner scanner = new Scanner();
+            Copies copies = null;
+            for (int y = 0; y < height && (copies == null || !copies.finished); y++) {
+                if (y % Stripes.STRIPE_HEIGHT == 0) {
+                    if (y > 0) {
+                        monitor.onProgress(y / Stripes.STRIPE_HEIGHT, stripes);
+                    }
+                    Stripes.checkCancelled(monitor);
+                }
+                rows.getRow(y, row);
+                long channel = (long) y * width * 4;
+                for (int x = 0; x < width && (copies == null || !copies.finished); x++) {
+                    for (int shift = 24; shift >= 0; shift -= 8, channel++) {
+                        int digit = digit(row[x], shift);
+                        if (copies != null) {
+                            copies.accept(channel, digit);
+                            continue;
+                        }
+
+                        if (head != null && !head.accept(digit)) {
+                            head = null;
+                        }
+                        if (head != null && head.length > 0) {
+                            // the image is not cropped, all the digits so far are votes.
+                            copies = new Copies(head.length, head.isImage, stripeEnd(channel), 0,
+                                    minAgreeingCopies);
+                            for (int i = 0; i < head.count; i++) {
+                                copies.accept(i, head.digits[i]);
+                            }
+                            continue;
+                        }
+                        scanner.accept(digit);
+                        if (scanner.result != null) {
+                            copies = new Copies((int) (channel + 1 - scanner.start), scanner.result.isImage(),
+                                    stripeEnd(channel), channel + 1, minAgreeingCopies);
+                            copies.vote(scanner);
+                        }
+                    }
+                }
+            }
+            return copies != null && copies.copyCount > 0 ? copies : null;
+        }
+
+        /**
+         * Vote the copies which start in a row stripe, the rows after the
+         * stripe are read as long as its last copy is not finished.
+         */
+        private Copies readStripe(int stripe, Copies first) {
+            long from = stripe * stripeChannels;
+            long start = first.nextStart;
+            if (from > start) {
+                start += (from - start + first.length - 1) / first.length * first.length;
+            }
+            Copies copies = new Copies(first.length, first.isImage, Math.min(channels, from + stripeChannels),
+                    start, 0);
+            int[] row = new int[width];
+            for (int y = stripe * Stripes.STRIPE_HEIGHT; y < height && !copies.finished; y++) {
+                rows.getRow(y, row);
+                long channel = (long) y * width * 4;
+                for (int x = 0; x < width && !copies.finished; x++) {
+                    for (int shift = 24; shift >= 0; shift -= 8, channel++) {
+                        copies.accept(channel, digit(row[x], shift));
+                    }
+                }
+            }
+            return copies;
+        }
+
+        /**
+         * @return the first channel of the next row stripe, or the number of the channels.
+         */
+        private long stripeEnd(long channel) {
+            return Math.min(channels, (channel / stripeChannels + 1) * stripeChannels);
+        }
+
+        /**
+         * The last decimal digit of a channel.
+         */
+        private static int digit(int color, int shift) {
+            int digit = (color >>> shift & 0xFF) % 10;
+            // the only case is 0 - 1 = 9, so, we need to replace all nines to zero.
+            return digit == 9 ? 0 : digit;
+        }
+
+        /**
+         * Add the counters of a stripe to the totals.
+         */
+        private static void merge(int[] stripe, int[] total) {
+            for (int bit = 0; bit < total.length; bit++) {
+                total[bit] += stripe[bit];
+            }
+        }
+
+        private static boolean isDecided(int[] ones, int[] zeros, int minAgreeingCopies) {
+            for (int bit = 0; bit < ones.length; bit++) {
+                if (Math.abs(ones[bit] - zeros[bit]) < minAgreeingCopies) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static Result finish(int[] ones, int[] zeros, Copies first) {
+            byte[] bytes = new byte[ones.length / 8];
+            long agreeing = 0;
+            long votes = 0;
+            for (int bit = 0; bit < ones.length; bit++) {
+                boolean isOne = ones[bit] > zeros[bit]
+                        || ones[bit] == zeros[bit] && first.firstBits[bit] == 1;
+                if (isOne) {
+                    bytes[bit >>> 3] |= 0x80 >>> (bit & 7);
+                }
+                agreeing += Math.max(ones[bit], zeros[bit]);
+                votes += ones[bit] + zeros[bit];
+            }
+            return new Result(bytes, first.isImage, votes == 0 ? 1 : (double) agreeing / votes);
+        }
+    }
+
+    /**
+     * The copy at the first channel of an image which is not cropped. The
+     * copy is accepted at the first place where the flags around its end
+     * match by a majority of their digits, and its own prefix matches too.
+     * The digits between the flags must be bits, apart from a few damaged
+     * ones, so a cropped image, or one without a watermark, is given up early.
+     */
+    private static final class Head {
+        // the matching digits of the prefix, and of all the flags with the prefix of the second copy.
+        private static final int MIN_PREFIX_MATCHES = 3;
+        private static final int MIN_FLAG_MATCHES = 9;
+        // the damaged digits allowed, besides one in every byte.
+        private static final int MAX_DAMAGED_DIGITS = 2;
+        private static final int FLAG_LENGTH = LSB_TEXT_PREFIX_FLAG.length();
+
+        private byte[] digits = new byte[64];
+        private int count;
+        private int end = 2 * FLAG_LENGTH;
+        private int damaged;
+        // the length of the copy, 0 while it is not found.
+        private int length;
+        private boolean isImage;
+
+        /**
+         * @return false if the image doesn't start with a copy.
+         */
+        boolean accept(int digit) {
+            if (count == digits.length) {
+                digits = Arrays.copyOf(digits, count * 2);
+            }
+            digits[count++] = (byte) digit;
+            if (count == FLAG_LENGTH) {
+                return matches(TEXT_PREFIX_DIGITS, 0) >= MIN_PREFIX_MATCHES
+                        || matches(IMG_PREFIX_DIGITS, 0) >= MIN_PREFIX_MATCHES;
+            }
+            if (count < end + FLAG_LENGTH) {
+                return true;
+            }
+
+            int textPrefix = matches(TEXT_PREFIX_DIGITS, 0);
+            int imagePrefix = matches(IMG_PREFIX_DIGITS, 0);
+            int text = textPrefix + matches(TEXT_SUFFIX_DIGITS, end - FLAG_LENGTH)
+                    + matches(TEXT_PREFIX_DIGITS, end);
+            int image = imagePrefix + matches(IMG_SUFFIX_DIGITS, end - FLAG_LENGTH)
+                    + matches(IMG_PREFIX_DIGITS, end);
+            if (image > text ? image >= MIN_FLAG_MATCHES && imagePrefix >= MIN_PREFIX_MATCHES
+                    : text >= MIN_FLAG_MATCHES && textPrefix >= MIN_PREFIX_MATCHES) {
+                length = end;
+                isImage = image > text;
+                return true;
+            }
+
+            // not the end of the copy, so the next byte of the bits.
+            for (int i = end - FLAG_LENGTH; i < end + FLAG_LENGTH; i++) {
+                if (digits[i] > 1) {
+                    damaged++;
+                }
+            }
+            end += 8;
+            return damaged <= MAX_DAMAGED_DIGITS + (end - 2 * FLAG_LENGTH) / 8;
+        }
+
+        private int matches(int[] flag, int from) {
+            int matches = 0;
+            for (int i = 0; i < flag.length; i++) {
+                if (digits[from + i] == flag[i]) {
+                    matches++;
+                }
+            }
+            return matches;
+        }
+    }
+
+    /**
+     * The copies of a known length which start before a channel. Every copy
+     * is expected right after the previous one, and voted if most of the
+     * digits of its flags match. Otherwise the copy is cut by a crop, so
+     * its digits are scanned for the next complete copy, which continues
+     * the chain.
+     */
+    private static final class Copies {
+        // the matching digits of the prefix and the suffix of a copy.
+        private static final int MIN_FLAG_MATCHES = 6;
+        private static final int FLAG_LENGTH = LSB_TEXT_PREFIX_FLAG.length();
+
+        private final int length;
+        private final boolean isImage;
+        private final long to;
+        // 0 if only the stripe is voted, and the totals are decided by the voter.
+        private final int minAgreeingCopies;
+        private final int[] prefix;
+        private final int[] suffix;
+        private final int[] ones;
+        private final int[] zeros;
+        private final byte[] digits;
+        private int count;
+        private long nextStart;
+        private Scanner scanner;
+        private int copyCount;
+        private byte[] firstBits;
+        private boolean decided;
+        private boolean finished;
+
+        Copies(int length, boolean isImage, long to, long nextStart, int minAgreeingCopies) {
+            this.length = length;
+            this.isImage = isImage;
+            this.to = to;
+            this.nextStart = nextStart;
+            this.minAgreeingCopies = minAgreeingCopies;
+            this.prefix = isImage ? IMG_PREFIX_DIGITS : TEXT_PREFIX_DIGITS;
+            this.suffix = isImage ? IMG_SUFFIX_DIGITS : TEXT_SUFFIX_DIGITS;
+            this.ones = new int[length - 2 * FLAG_LENGTH];
+            this.zeros = new int[ones.length];
+            this.digits = new byte[length];
+            this.finished = nextStart >= to;
+        }
+
+        void accept(long channel, int digit) {
+            if (finished) {
+                return;
+            }
+            if (scanner != null) {
+                scan(channel, digit);
+                return;
+            }
+            if (channel < nextStart) {
+                return;
+            }
+
+            digits[count++] = (byte) digit;
+            if (count < length) {
+                return;
+            }
+            count = 0;
+            if (flagMatches() >= MIN_FLAG_MATCHES) {
+                nextStart += length;
+                finished = nextStart >= to;
+                vote(digits);
+            } else {
+                // the copy is cut, its digits may hold the start of the next one.
+                byte[] cut = digits.clone();
+                long start = nextStart;
+                scanner = new Scanner(start);
+                for (int i = 0; i < length && !finished; i++) {
+                    accept(start + i, cut[i]);
+                }
+            }
+        }
+
+        private void scan(long channel, int digit) {
+            scanner.accept(digit);
+            Result found = scanner.result;
+            if (found != null) {
+                long start = scanner.start;
+                if (start >= to) {
+                    finished = true;
+                } else if (channel + 1 - start == length && found.isImage() == isImage) {
+                    Scanner copy = scanner;
+                    scanner = null;
+                    nextStart = channel + 1;
+                    finished = nextStart >= to;
+                    vote(copy);
+                } else {
+                    // another watermark.
+                    scanner = new Scanner(channel + 1);
+                }
+            } else if (scanner.suffix == 0 ? channel >= to + FLAG_LENGTH : scanner.start >= to) {
+                finished = true;
+            }
+        }
+
+        private int flagMatches() {
+            int matches = 0;
+            for (int i = 0; i < FLAG_LENGTH; i++) {
+                if (digits[i] == prefix[i]) {
+                    matches++;
+                }
+                if (digits[length - FLAG_LENGTH + i] == suffix[i]) {
+                    matches++;
+                }
+            }
+            return matches;
+        }
+
+        /**
+         * Vote a copy of which the flags match.
+         */
+        private void vote(byte[] copy) {
+            byte[] bits = firstBits == null ? new byte[ones.length] : null;
+            for (int bit = 0; bit < ones.length; bit++) {
+                int digit = copy[FLAG_LENGTH + bit];
+                if (digit == 1) {
+                    ones[bit]++;
+                } else if (digit == 0) {
+                    zeros[bit]++;
+                }
+                if (bits != null) {
+                    bits[bit] = (byte) (digit == 1 ? 1 : 0);
+                }
+            }
+            onVoted(bits);
+        }
+
+        /**
+         * Vote a complete copy which is found by a scanner.
+         */
+        private void vote(Scanner copy) {
+            byte[] bits = firstBits == null ? new byte[ones.length] : null;
+            for (int bit = 0; bit < ones.length; bit++) {
+                int digit = copy.bitAt(bit);
+                if (digit == 1) {
+                    ones[bit]++;
+                } else {
+                    zeros[bit]++;
+                }
+                if (bits != null) {
+                    bits[bit] = (byte) digit;
+                }
+            }
+            onVoted(bits);
+        }
+
+        private void onVoted(byte[] bits) {
+            if (firstBits == null) {
+                firstBits = bits;
+            }
+            copyCount++;
+            if (minAgreeingCopies > 0 && Voter.isDecided(ones, zeros, minAgreeingCopies)) {
+                decided = true;
+                finished = true;
+            }
+        }
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ *    Copyright 2018 Yizheng Huang
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package com.watermark.androidwm.core;
+
+import java.nio.charset.Charset;
+import java.util.concurrent.ForkJoinPool;
+
+import static com.watermark.androidwm.utils.Constant.LSB_IMG_PREFIX_FLAG;
+import static com.watermark.androidwm.utils.Constant.LSB_IMG_SUFFIX_FLAG;
+import static com.watermark.androidwm.utils.Constant.LSB_TEXT_PREFIX_FLAG;
+import static com.watermark.androidwm.utils.Constant.LSB_TEXT_SUFFIX_FLAG;
+
+/**
+ * The LSB embedding algorithm on a {@link PixelBuffer}. The payload is a
+ * sequence of decimal digits (the binary digits of the watermark between
+ * the prefix and suffix flags), the last decimal digit of every A, R, G
+ * and B channel is replaced by the payload, which is repeated over the
+ * image. The last, incomplete copy is not written.
+ *
+ * @author huangyz0918 (huangyz0918@gmail.com)
+ */
+public final class LSBEmbedder {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private LSBEmbedder() {
+    }
+
+    /**
+     * Convert a watermark string into the payload digits, with the flags.
+     *
+     * @param watermarkString the text of the watermark.
+     * @param isImage         which flags to use.
+     */
+    public static int[] createPayload(String watermarkString, boolean isImage) {
+        return createPayload(watermarkString.getBytes(UTF_8), isImage);
+    }
+
+    /**
+     * Convert the raw bytes of a watermark into the payload digits, with the flags.
+     *
+     * @param data    the UTF-8 text, or the {@link ImagePayload} of an image.
+     * @param isImage which flags to use.
+     */
+    public static int[] createPayload(byte[] data, boolean isImage) {
+        String watermarkBinary = PayloadCodec.bytesToBinary(data);
+        if (isImage) {
+            watermarkBinary = LSB_IMG_PREFIX_FLAG + watermarkBinary + LSB_IMG_SUFFIX_FLAG;
+        } else {
+            watermarkBinary = LSB_TEXT_PREFIX_FLAG + watermarkBinary + LSB_TEXT_SUFFIX_FLAG;
+        }
+        return PayloadCodec.stringToDigits(watermarkBinary);
+    }
+
+    /**
+     * Embed the payload into the source, and write the result into the target.
+     * The target can be the source itself.
+     *
+     * @return false if the source doesn't have enough channels for one copy.
+     */
+    public static boolean embed(PixelBuffer source, int[] payload, PixelBuffer target) {
+        return embed(source, payload, target, ProgressMonitor.NONE);
+    }
+
+    /**
+     * The same as {@link #embed(PixelBuffer, int[], PixelBuffer)}, the monitor
+     * is checked and notified after every row stripe.
+     *
+     * @throws java.util.concurrent.CancellationException if the monitor is cancelled.
+     */
+    public static boolean embed(PixelBuffer source, int[] payload, PixelBuffer target,
+                                ProgressMonitor monitor) {
+        Writer writer = newWriter(payload, source.getPixelCount());
+        if (writer == null) {
+            return false;
+        }
+        Stripes.writeRows(source, target, writer, monitor);
+        return true;
+    }
+
+    /**
+     * The same as {@link #embed(PixelBuffer, int[], PixelBuffer, ProgressMonitor)},
+     * the row stripes are written in parallel on the pool. The result is the
+     * same for any number of threads.
+     *
+     * @throws java.util.concurrent.CancellationException if the monitor is cancelled.
+     */
+    public static boolean embed(PixelBuffer source, int[] payload, PixelBuffer target,
+                                ForkJoinPool pool, ProgressMonitor monitor) {
+        Writer writer = newWriter(payload, source.getPixelCount());
+        if (writer == null) {
+            return false;
+        }
+        Stripes.writeRows(source, target, writer, pool, monitor);
+        return true;
+    }
+
+    /**
+     * Create the row kernel of the payload, for an image of the pixel count.
+     *
+     * @return the writer, or null if the image doesn't have enough channels for one copy.
+     */
+    public static Writer newWriter(int[] payload, long pixelCount) {
+        return payload.length > pixelCount * 4 ? null : new Writer(payload, pixelCount * 4);
+    }
+
+    /**
+     * The row kernel of the LSB embedding, it replaces the last decimal
+     * digit of the channels of the packed colors in place, with shifts
+     * and masks.
+     */
+    public static final class Writer implements RowWriter {
+        private final int[] payload;
+        private final long limit;
+        private long channel;
+        private int digit;
+
+        Writer(int[] payload, long channels) {
+            this.payload = payload;
+            int numOfChunks = (int) Math.ceil((double) channels / payload.length);
+            // the channels after this index are not changed.
+            this.limit = (long) (numOfChunks - 1) * payload.length;
+        }
+
+        private Writer(int[] payload, long limit, long channel) {
+            this.payload = payload;
+            this.limit = limit;
+            this.channel = channel;
+            this.digit = (int) (channel % payload.length);
+        }
+
+        @Override
+        public Writer startingAt(long pixelIndex) {
+            return new Writer(payload, limit, pixelIndex * 4);
+        }
+
+        @Override
+        public void writeRow(int[] source, int sourceOffset, int[] target, int targetOffset, int width) {
+            int chunkSize = payload.length;
+            for (int x = 0; x < width; x++) {
+                int color = source[sourceOffset + x];
+                // alpha, red, green and blue, from the high byte to the low byte.
+                for (int shift = 24; shift >= 0 && channel < limit; shift -= 8, channel++) {
+                    int value = color >>> shift & 0xFF;
+                    color = color & ~(0xFF << shift) | (value - value % 10 + payload[digit]) << shift;
+                    // the payload index wraps around at the end of every copy.
+                    digit = digit + 1 == chunkSize ? 0 : digit + 1;
+                }
+                target[targetOffset + x] = color;
+            }
+        }
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ *    Copyright 2018 Yizheng Huang
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package com.watermark.androidwm.core;
+
+import java.nio.charset.Charset;
+
+/**
+ * The pure Java versions of the string conversions of the LSB payload,
+ * they produce the same results as the native methods in {@code StringUtils}:
+ * a text is converted into the 8 bit binary digits of its UTF-8 bytes.
+ *
+ * @author huangyz0918 (huangyz0918@gmail.com)
+ */
+public final class PayloadCodec {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private PayloadCodec() {
+    }
+
+    /**
+     * Converting a text into a binary text, 8 digits for each UTF-8 byte.
+     */
+    public static String stringToBinary(String inputText) {
+        return bytesToBinary(inputText.getBytes(UTF_8));
+    }
+
+    /**
+     * Converting raw bytes into a binary text, 8 digits for each byte.
+     */
+    public static String bytesToBinary(byte[] bytes) {
+        char[] binary = new char[bytes.length * 8];
+        for (int i = 0; i < bytes.length; i++) {
+            for (int bit = 0; bit < 8; bit++) {
+                binary[i * 8 + bit] = ((bytes[i] >> (7 - bit)) & 1) == 0 ? '0' : '1';
+            }
+        }
+        return new String(binary);
+    }
+
+    /**
+     * Converting a binary text back to the text, the incomplete
+     * byte at the end is ignored.
+     */
+    public static String binaryToString(String binaryText) {
+        byte[] bytes = new byte[binaryText.length() / 8];
+        for (int i = 0; i < bytes.length; i++) {
+            int value = 0;
+            for (int bit = 0; bit < 8; bit++) {
+                value = (value << 1) | (binaryText.charAt(i * 8 + bit) == '1' ? 1 : 0);
+            }
+            bytes[i] = (byte) value;
+        }
+        return new String(bytes, UTF_8);
+    }
+
+    /**
+     * A string of decimal digits to the digits array.
+     */
+    public static int[] stringToDigits(String digitText) {
+        int[] digits = new int[digitText.length()];
+        for (int i = 0; i < digits.length; i++) {
+            digits[i] = digitText.charAt(i) - '0';
+        }
+        return digits;
+    }
+}
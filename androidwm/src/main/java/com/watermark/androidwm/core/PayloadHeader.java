@@ -0,0 +1,117 @@
+/*
+ *    Copyright 2018 Yizheng Huang
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package com.watermark.androidwm.core;
+
+import java.util.zip.CRC32;
+
+/**
+ * The binary header of a bit-plane payload, it is written in the first
+ * pixels, before the data:
+ * <pre>
+ * offset  size  field
+ *      0     2  magic, "AW"
+ *      2     1  version
+ *      3     1  type of the data, text or image
+ *      4     4  length of the data in bytes, big-endian
+ *      8     4  CRC32 of the data, big-endian
+ * </pre>
+ * A detector reads the header, checks the magic and the version, and then
+ * reads exactly the length of the data, which is verified by the CRC32.
+ *
+ * @author huangyz0918 (huangyz0918@gmail.com)
+ */
+public final class PayloadHeader {
+    public static final int MAGIC = 0x4157;
+    public static final int VERSION = 1;
+    public static final int TYPE_TEXT = 1;
+    public static final int TYPE_IMAGE = 2;
+    public static final int SIZE = 12;
+
+    private final int type;
+    private final int length;
+    private final int crc;
+
+    private PayloadHeader(int type, int length, int crc) {
+        this.type = type;
+        this.length = length;
+        this.crc = crc;
+    }
+
+    /**
+     * Put the header in front of the data.
+     */
+    public static byte[] frame(int type, byte[] data) {
+        byte[] payload = new byte[SIZE + data.length];
+        payload[0] = (byte) (MAGIC >>> 8);
+        payload[1] = (byte) MAGIC;
+        payload[2] = (byte) VERSION;
+        payload[3] = (byte) type;
+        putInt(payload, 4, data.length);
+        putInt(payload, 8, crc32(data, 0, data.length));
+        System.arraycopy(data, 0, payload, SIZE, data.length);
+        return payload;
+    }
+
+    /**
+     * Parse the header from the first {@link #SIZE} bytes.
+     *
+     * @return the header, or null if it is not a header of a known version.
+     */
+    public static PayloadHeader parse(byte[] bytes) {
+        int magic = (bytes[0] & 0xFF) << 8 | bytes[1] & 0xFF;
+        int type = bytes[3];
+        int length = getInt(bytes, 4);
+        if (magic != MAGIC || bytes[2] != VERSION
+                || type != TYPE_TEXT && type != TYPE_IMAGE || length < 0) {
+            return null;
+        }
+        return new PayloadHeader(type, length, getInt(bytes, 8));
+    }
+
+    public int getType() {
+        return type;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * @return true if the CRC32 of the data matches the header.
+     */
+    public boolean verify(byte[] bytes, int offset) {
+        return crc32(bytes, offset, length) == crc;
+    }
+
+    private static int crc32(byte[] bytes, int offset, int length) {
+        CRC32 crc32 = new CRC32();
+        crc32.update(bytes, offset, length);
+        return (int) crc32.getValue();
+    }
+
+    private static void putInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) (value >>> 24);
+        bytes[offset + 1] = (byte) (value >>> 16);
+        bytes[offset + 2] = (byte) (value >>> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+
+    private static int getInt(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xFF) << 24 | (bytes[offset + 1] & 0xFF) << 16
+                | (bytes[offset + 2] & 0xFF) << 8 | bytes[offset + 3] & 0xFF;
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ *    Copyright 2018 Yizheng Huang
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package com.watermark.androidwm.core;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A raster of packed ARGB colors (the same format as
+ * {@code android.graphics.Color} ints), with a width, height, offset and
+ * stride over a plain {@code int[]}. All the embedding and detection
+ * algorithms work on it, so they can run and be measured on a plain JVM,
+ * the Bitmap adapters are in {@code BitmapUtils}.
+ * <p>
+ * The colors are not premultiplied, as returned by {@code Bitmap.getPixels()}.
+ *
+ * @author huangyz0918 (huangyz0918@gmail.com)
+ */
+public final class PixelBuffer {
+    private final int[] pixels;
+    private final int offset;
+    private final int stride;
+    private final int width;
+    private final int height;
+
+    /**
+     * Wrap a part of an int array, the pixel (x, y) is at
+     * {@code pixels[offset + y * stride + x]}.
+     */
+    public PixelBuffer(int[] pixels, int offset, int stride, int width, int height) {
+        if (width <= 0 || height <= 0 || stride < width || offset < 0
+                || offset + (long) (height - 1) * stride + width > pixels.length) {
+            throw new IllegalArgumentException("Invalid raster: " + width + "x" + height
+                    + ", offset " + offset + ", stride " + stride + ", length " + pixels.length);
+        }
+        this.pixels = pixels;
+        this.offset = offset;
+        this.stride = stride;
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * Wrap a packed int array, without gaps between the rows.
+     */
+    public PixelBuffer(int[] pixels, int width, int height) {
+        this(pixels, 0, width, width, height);
+    }
+
+    public static PixelBuffer allocate(int width, int height) {
+        return new PixelBuffer(new int[width * height], width, height);
+    }
+
+    /**
+     * Read a raster of RGBA bytes (the memory layout of an ARGB_8888
+     * bitmap), from the current position of the buffer.
+     *
+     * @param rowBytes the number of the bytes between two rows.
+     */
+    public static PixelBuffer fromRgbaBytes(ByteBuffer buffer, int width, int height, int rowBytes) {
+        PixelBuffer pixelBuffer = allocate(width, height);
+        int start = buffer.position();
+        for (int y = 0; y < height; y++) {
+            int position = start + y * rowBytes;
+            int index = y * width;
+            for (int x = 0; x < width; x++, position += 4) {
+                pixelBuffer.pixels[index + x] = argb(buffer.get(position + 3) & 0xff,
+                        buffer.get(position) & 0xff,
+                        buffer.get(position + 1) & 0xff,
+                        buffer.get(position + 2) & 0xff);
+            }
+        }
+        return pixelBuffer;
+    }
+
+    /**
+     * Write the raster as RGBA bytes into the buffer, from its current
+     * position, without gaps between the rows.
+     */
+    public void toRgbaBytes(ByteBuffer buffer) {
+        int position = buffer.position();
+        for (int y = 0; y < height; y++) {
+            int index = offset + y * stride;
+            for (int x = 0; x < width; x++, position += 4) {
+                int color = pixels[index + x];
+                buffer.put(position, (byte) red(color));
+                buffer.put(position + 1, (byte) green(color));
+                buffer.put(position + 2, (byte) blue(color));
+                buffer.put(position + 3, (byte) alpha(color));
+            }
+        }
+    }
+
+    public int[] getPixels() {
+        return pixels;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    public int getStride() {
+        return stride;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getPixelCount() {
+        return width * height;
+    }
+
+    public int getPixel(int x, int y) {
+        return pixels[offset + y * stride + x];
+    }
+
+    public void setPixel(int x, int y, int color) {
+        pixels[offset + y * stride + x] = color;
+    }
+
+    /**
+     * Copy the pixels into a new packed array, row by row.
+     */
+    public int[] toArray() {
+        int[] result = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            System.arraycopy(pixels, offset + y * stride, result, y * width, width);
+        }
+        return result;
+    }
+
+    /**
+     * Expand the pixels into an array of the channels, in the order of
+     * A, R, G, B for every pixel.
+     */
+    public int[] toChannelArray() {
+        int[] channels = new int[width * height * 4];
+        int channel = 0;
+        for (int y = 0; y < height; y++) {
+            int index = offset + y * stride;
+            for (int x = 0; x < width; x++) {
+                int color = pixels[index + x];
+                channels[channel++] = alpha(color);
+                channels[channel++] = red(color);
+                channels[channel++] = green(color);
+                channels[channel++] = blue(color);
+            }
+        }
+        return channels;
+    }
+
+    /**
+     * Copy all the pixels from another buffer with the same size.
+     */
+    public void copyFrom(PixelBuffer source) {
+        if (source.width != width || source.height != height) {
+            throw new IllegalArgumentException("The buffers have different sizes!");
+        }
+        for (int y = 0; y < height; y++) {
+            System.arraycopy(source.pixels, source.offset + y * source.stride,
+                    pixels, offset + y * stride, width);
+        }
+    }
+
+    /**
+     * Same as {@code Color.alpha()}.
+     */
+    public static int alpha(int color) {
+        return color >>> 24;
+    }
+
+    public static int red(int color) {
+        return (color >> 16) & 0xFF;
+    }
+
+    public static int green(int color) {
+        return (color >> 8) & 0xFF;
+    }
+
+    public static int blue(int color) {
+        return color & 0xFF;
+    }
+
+    /**
+     * Same as {@code Color.argb()}, the components are not masked.
+     */
+    public static int argb(int alpha, int red, int green, int blue) {
+        return (alpha << 24) | (red << 16) | (green << 8) | blue;
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ *    Copyright 2018 Yizheng Huang
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package com.watermark.androidwm.core;
+
+/**
+ * The monitor of a long running embedding or detection. The algorithms
+ * check it between the row stripes (or the chunks), and stop with a
+ * {@link java.util.concurrent.CancellationException} once it is cancelled,
+ * so the pixel arrays of an abandoned job are released quickly.
+ *
+ * @author huangyz0918 (huangyz0918@gmail.com)
+ */
+public interface ProgressMonitor {
+
+    /**
+     * The monitor which is never cancelled and ignores the progress.
+     */
+    ProgressMonitor NONE = new ProgressMonitor() {
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+
+        @Override
+        public void onProgress(int completed, int total) {
+            // ignored.
+        }
+    };
+
+    boolean isCancelled();
+
+    /**
+     * A stripe (or a chunk) is finished.
+     *
+     * @param completed the number of the finished stripes.
+     * @param total     the number of all the stripes.
+     */
+    void onProgress(int completed, int total);
+}
@@ -0,0 +1,39 @@
+/*
+ *    Copyright 2018 Yizheng Huang
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package com.watermark.androidwm.core;
+
+/**
+ * A stateful detection kernel which is fed one pixel row at a time, from
+ * the top row to the bottom row. It tells the caller when it has read
+ * enough, so the rows after the payload are never read.
+ *
+ * @author huangyz0918 (huangyz0918@gmail.com)
+ */
+public interface RowReader {
+
+    /**
+     * Read the next row of packed ARGB colors.
+     *
+     * @param width the number of the pixels in the row.
+     */
+    void readRow(int[] pixels, int offset, int width);
+
+    /**
+     * @return true if no more rows are needed.
+     */
+    boolean isFinished();
+}
@@ -0,0 +1,36 @@
+/*
+ *    Copyright 2018 Yizheng Huang
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package com.watermark.androidwm.core;
+
+/**
+ * The rows of an image which can be read in any order, e.g. a bitmap, so
+ * the parallel detection only copies the rows it needs.
+ *
+ * @author huangyz0918 (huangyz0918@gmail.com)
+ */
+public interface RowSource {
+
+    int getWidth();
+
+    int getHeight();
+
+    /**
+     * Copy the packed ARGB colors of a row into the array, from index 0.
+     * It is called from several threads at the same time.
+     */
+    void getRow(int y, int[] row);
+}
@@ -0,0 +1,43 @@
+/*
+ *    Copyright 2018 Yizheng Huang
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package com.watermark.androidwm.core;
+
+/**
+ * A stateful embedding kernel which is fed one pixel row at a time, from
+ * the top row to the bottom row. The payload position is kept between the
+ * rows, so the caller only needs a buffer of a single row, instead of a
+ * copy of all the pixels.
+ *
+ * @author huangyz0918 (huangyz0918@gmail.com)
+ */
+public interface RowWriter {
+
+    /**
+     * Embed the next part of the payload into a row of packed ARGB colors.
+     * The target can be the source itself.
+     *
+     * @param width the number of the pixels in the row.
+     */
+    void writeRow(int[] source, int sourceOffset, int[] target, int targetOffset, int width);
+
+    /**
+     * A new writer of the same payload, which starts at the pixel index
+     * (counted from the first pixel of the image) instead of the first
+     * pixel, so the rows of an image can be written in any order.
+     */
+    RowWriter startingAt(long pixelIndex);
+}
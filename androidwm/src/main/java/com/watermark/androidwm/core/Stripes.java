@@ -0,0 +1,230 @@
+/*
+ *    Copyright 2018 Yizheng Huang
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package com.watermark.androidwm.core;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The row stripes of the pixel loops, the stripes are the unit of the
+ * cancellation checks and the progress. The row loops over a bitmap
+ * use them as well, so the progress is the same for every caller.
+ * <p>
+ * The stripes are also the unit of the parallel loops. The position of a
+ * stripe in the payload only depends on its first row, so every stripe
+ * is processed on its own, and the result doesn't depend on the number
+ * of the threads.
+ *
+ * @author huangyz0918 (huangyz0918@gmail.com)
+ */
+public final class Stripes {
+    public static final int STRIPE_HEIGHT = 16;
+
+    private Stripes() {
+    }
+
+    public static int count(int height) {
+        return (height + STRIPE_HEIGHT - 1) / STRIPE_HEIGHT;
+    }
+
+    /**
+     * Feed all the rows of the source to the writer, the results are
+     * written into the target, which can be the source itself.
+     */
+    static void writeRows(PixelBuffer source, PixelBuffer target, RowWriter writer,
+                          ProgressMonitor monitor) {
+        int height = source.getHeight();
+        int stripes = count(height);
+        for (int stripe = 0; stripe < stripes; stripe++) {
+            checkCancelled(monitor);
+            int bottom = Math.min(height, (stripe + 1) * STRIPE_HEIGHT);
+            for (int y = stripe * STRIPE_HEIGHT; y < bottom; y++) {
+                writer.writeRow(source.getPixels(), source.getOffset() + y * source.getStride(),
+                        target.getPixels(), target.getOffset() + y * target.getStride(), source.getWidth());
+            }
+            monitor.onProgress(stripe + 1, stripes);
+        }
+    }
+
+    /**
+     * The same as {@link #writeRows(PixelBuffer, PixelBuffer, RowWriter, ProgressMonitor)},
+     * the stripes are written in parallel on the pool.
+     *
+     * @throws CancellationException if the monitor is cancelled.
+     */
+    public static void writeRows(PixelBuffer source, PixelBuffer target, RowWriter writer,
+                                 ForkJoinPool pool, ProgressMonitor monitor) {
+        writeRows(source, target, 0, writer, pool, monitor);
+    }
+
+    /**
+     * The same as {@link #writeRows(PixelBuffer, PixelBuffer, RowWriter, ForkJoinPool, ProgressMonitor)},
+     * for a band of the rows of an image, so the image can be written band
+     * by band through a buffer of a few stripes.
+     *
+     * @param firstRow the row of the image which is the first row of the buffers,
+     *                 it must be at the top of a stripe.
+     * @throws CancellationException if the monitor is cancelled.
+     */
+    public static void writeRows(final PixelBuffer source, final PixelBuffer target, final int firstRow,
+                                 final RowWriter writer, ForkJoinPool pool, ProgressMonitor monitor) {
+        final int height = source.getHeight();
+        forEach(pool, count(height), new Body() {
+            @Override
+            public void run(int stripe) {
+                int top = stripe * STRIPE_HEIGHT;
+                int bottom = Math.min(height, top + STRIPE_HEIGHT);
+                RowWriter stripeWriter = writer.startingAt((long) (firstRow + top) * source.getWidth());
+                for (int y = top; y < bottom; y++) {
+                    stripeWriter.writeRow(source.getPixels(), source.getOffset() + y * source.getStride(),
+                            target.getPixels(), target.getOffset() + y * target.getStride(), source.getWidth());
+                }
+            }
+        }, monitor);
+    }
+
+    /**
+     * The rows of a pixel buffer, for the detections which read a {@link RowSource}.
+     */
+    static RowSource rows(final PixelBuffer buffer) {
+        return new RowSource() {
+            @Override
+            public int getWidth() {
+                return buffer.getWidth();
+            }
+
+            @Override
+            public int getHeight() {
+                return buffer.getHeight();
+            }
+
+            @Override
+            public void getRow(int y, int[] row) {
+                System.arraycopy(buffer.getPixels(), buffer.getOffset() + y * buffer.getStride(),
+                        row, 0, buffer.getWidth());
+            }
+        };
+    }
+
+    /**
+     * Feed the rows of the source to the reader, until it is finished.
+     */
+    static void readRows(PixelBuffer source, RowReader reader, ProgressMonitor monitor) {
+        int height = source.getHeight();
+        int stripes = count(height);
+        for (int stripe = 0; stripe < stripes && !reader.isFinished(); stripe++) {
+            checkCancelled(monitor);
+            int bottom = Math.min(height, (stripe + 1) * STRIPE_HEIGHT);
+            for (int y = stripe * STRIPE_HEIGHT; y < bottom && !reader.isFinished(); y++) {
+                reader.readRow(source.getPixels(), source.getOffset() + y * source.getStride(),
+                        source.getWidth());
+            }
+            monitor.onProgress(stripe + 1, stripes);
+        }
+    }
+
+    /**
+     * The same as {@link #readRows(PixelBuffer, RowReader, ProgressMonitor)},
+     * the rows are copied out of the source one at a time, into a single row.
+     *
+     * @throws CancellationException if the monitor is cancelled.
+     */
+    public static void readRows(RowSource source, RowReader reader, ProgressMonitor monitor) {
+        int width = source.getWidth();
+        int height = source.getHeight();
+        int[] row = new int[width];
+        int stripes = count(height);
+        for (int stripe = 0; stripe < stripes && !reader.isFinished(); stripe++) {
+            checkCancelled(monitor);
+            int bottom = Math.min(height, (stripe + 1) * STRIPE_HEIGHT);
+            for (int y = stripe * STRIPE_HEIGHT; y < bottom && !reader.isFinished(); y++) {
+                source.getRow(y, row);
+                reader.readRow(row, 0, width);
+            }
+            monitor.onProgress(stripe + 1, stripes);
+        }
+    }
+
+    /**
+     * The work on a single stripe, it must only write the pixels (or the
+     * bytes) of its own stripe, so the stripes never need a lock.
+     */
+    public interface Body {
+        void run(int stripe);
+    }
+
+    /**
+     * Run the body for all the stripes on the pool, and wait for them. The
+     * monitor is checked before every stripe, and notified after it, from
+     * the thread of the stripe.
+     *
+     * @throws CancellationException if the monitor is cancelled.
+     */
+    public static void forEach(ForkJoinPool pool, int stripes, Body body, ProgressMonitor monitor) {
+        if (stripes > 0) {
+            pool.invoke(new StripeAction(0, stripes, body, monitor, stripes, new AtomicInteger()));
+        }
+    }
+
+    /**
+     * Split the stripes in halves, until there is only one stripe.
+     */
+    private static final class StripeAction extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+        private final Body body;
+        private final ProgressMonitor monitor;
+        private final int total;
+        private final AtomicInteger completed;
+
+        StripeAction(int from, int to, Body body, ProgressMonitor monitor, int total,
+                     AtomicInteger completed) {
+            this.from = from;
+            this.to = to;
+            this.body = body;
+            this.monitor = monitor;
+            this.total = total;
+            this.completed = completed;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new StripeAction(from, middle, body, monitor, total, completed),
+                        new StripeAction(middle, to, body, monitor, total, completed));
+                return;
+            }
+            checkCancelled(monitor);
+            body.run(from);
+            monitor.onProgress(completed.incrementAndGet(), total);
+        }
+    }
+
+    /**
+     * Throw a {@link CancellationException} if the job is cancelled.
+     */
+    public static void checkCancelled(ProgressMonitor monitor) {
+        if (monitor.isCancelled()) {
+            throw new CancellationException();
+        }
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ *    Copyright 2018 Yizheng Huang
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package com.watermark.androidwm.listener;
+
+import android.graphics.Bitmap;
+import androidx.annotation.WorkerThread;
+
+import com.watermark.androidwm.bean.BatchResult;
+
+/**
+ * This interface is for listening the items and the end of
+ * a {@link com.watermark.androidwm.WatermarkBatch}.
+ * <p>
+ * All the methods are called on the worker threads of the batch,
+ * the item callbacks can be called concurrently.
+ *
+ * @param <T> the type of the inputs.
+ * @author huangyz0918 (huangyz0918@gmail.com)
+ */
+public interface BatchProcessListener<T> {
+
+    /**
+     * An item is watermarked, the output bitmap belongs to the listener,
+     * it can be put back into the {@link com.watermark.androidwm.utils.BitmapPool}
+     * after it is saved.
+     */
+    @WorkerThread
+    void onItemSuccess(int index, T input, Bitmap output);
+
+    @WorkerThread
+    void onItemFailure(int index, T input, String message);
+
+    @WorkerThread
+    void onFinish(BatchResult result);
+}
@@ -0,0 +1,94 @@
+/*
+ *    Copyright 2018 Yizheng Huang
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package com.watermark.androidwm.listener;
+
+/**
+ * This interface is for collecting the timing of every stage in
+ * building or detecting a watermark, it is optional and disabled
+ * by default. The callbacks are invoked in the thread which runs
+ * the stage, usually a background thread.
+ *
+ * @author huangyz0918 (huangyz0918@gmail.com)
+ */
+public interface WatermarkMetricsListener {
+
+    /**
+     * The stages of building or detecting a watermark.
+     */
+    enum Stage {
+        /**
+         * Decoding the background from a file or a stream.
+         */
+        DECODE,
+        /**
+         * Resizing the background to the max image size.
+         */
+        RESIZE,
+        /**
+         * Drawing a text watermark into a bitmap.
+         */
+        RASTERIZE_TEXT,
+        /**
+         * Converting a watermark into the invisible payload, or the
+         * detected payload back into a watermark.
+         */
+        PAYLOAD,
+        /**
+         * Reading the pixels of a bitmap into an array.
+         */
+        EXTRACT_PIXELS,
+        /**
+         * The frequency domain transforms.
+         */
+        TRANSFORM,
+        /**
+         * Putting the LSB payload into the pixels.
+         */
+        EMBED,
+        /**
+         * Reading the LSB payload from the pixels.
+         */
+        DETECT,
+        /**
+         * Writing the pixels back into the output bitmap.
+         */
+        SET_PIXELS,
+        /**
+         * Drawing the background and the visible watermarks.
+         */
+        COMPOSE,
+        /**
+         * Encoding the output image into a file.
+         */
+        ENCODE
+    }
+
+    /**
+     * A stage is finished.
+     *
+     * @param stage          the finished stage.
+     * @param wallTimeNanos  the wall time of the stage, in nanoseconds.
+     * @param allocatedBytes the bytes of the pixel buffers produced by the stage.
+     * @param width          the width of the image of the stage.
+     * @param height         the height of the image of the stage.
+     * @param payloadSize    the size of the embedded (or detected) payload in bytes,
+     *                       without the flags and the headers of the LSB modes,
+     *                       0 if there is no payload.
+     */
+    void onStage(Stage stage, long wallTimeNanos, long allocatedBytes,
+                 int width, int height, int payloadSize);
+}
@@ -28,6 +28,7 @@ public class DetectionReturnValue {
 
     private Bitmap watermarkBitmap;
     private String watermarkString;
+    private double confidence = 1;
 
     public DetectionReturnValue() {
 
@@ -53,4 +54,23 @@ public class DetectionReturnValue {
     protected void setWatermarkString(String watermarkString) {
         this.watermarkString = watermarkString;
     }
+
+    /**
+     * @return the share of the votes of the LSB copies which agree with the
+     * watermark, from 0.5 to 1. It is 1 if there is only one copy to read.
+     */
+    public double getConfidence() {
+        return confidence;
+    }
+
+    protected void setConfidence(double confidence) {
+        this.confidence = confidence;
+    }
+
+    /**
+     * Whether a watermark string or a watermark bitmap is found.
+     */
+    boolean hasWatermark() {
+        return watermarkString != null && !"".equals(watermarkString) || watermarkBitmap != null;
+    }
 }
@@ -18,18 +18,25 @@ package com.watermark.androidwm.task;
 
 import android.graphics.Bitmap;
 import android.os.AsyncTask;
-
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import com.watermark.androidwm.WatermarkException;
+import com.watermark.androidwm.WatermarkInputException;
+import com.watermark.androidwm.WatermarkNotFoundException;
+import com.watermark.androidwm.core.FDDetector;
+import com.watermark.androidwm.core.PixelBuffer;
+import com.watermark.androidwm.core.ProgressMonitor;
 import com.watermark.androidwm.listener.DetectFinishListener;
-import com.watermark.androidwm.utils.FastDctFft;
+import com.watermark.androidwm.listener.WatermarkMetricsListener.Stage;
+import com.watermark.androidwm.utils.MetricsRecorder;
 
-import static com.watermark.androidwm.utils.BitmapUtils.pixel2ARGBArray;
-import static com.watermark.androidwm.utils.BitmapUtils.getBitmapPixels;
-import static com.watermark.androidwm.utils.Constant.CHUNK_SIZE;
+import static com.watermark.androidwm.utils.BitmapUtils.toPixelBuffer;
 import static com.watermark.androidwm.utils.Constant.ERROR_BITMAP_NULL;
 import static com.watermark.androidwm.utils.Constant.ERROR_DETECT_FAILED;
 import static com.watermark.androidwm.utils.Constant.MAX_IMAGE_SIZE;
 import static com.watermark.androidwm.utils.Constant.WARNING_BIG_IMAGE;
-import static com.watermark.androidwm.utils.StringUtils.copyFromIntArray;
 
 /**
  * This is a task for watermark image detection.
@@ -41,82 +48,94 @@ import static com.watermark.androidwm.utils.StringUtils.copyFromIntArray;
 public class FDDetectionTask extends AsyncTask<Bitmap, Void, DetectionReturnValue> {
 
     private DetectFinishListener listener;
+    private MetricsRecorder metrics;
+    private String failureMessage = ERROR_DETECT_FAILED;
 
     public FDDetectionTask(DetectFinishListener listener) {
+        this(listener, MetricsRecorder.NONE);
+    }
+
+    public FDDetectionTask(DetectFinishListener listener, MetricsRecorder metrics) {
         this.listener = listener;
+        this.metrics = metrics;
     }
 
     @Override
     protected DetectionReturnValue doInBackground(Bitmap... bitmaps) {
-        Bitmap markedBitmap = bitmaps[0];
+        try {
+            return detect(bitmaps[0], metrics);
+        } catch (WatermarkException e) {
+            failureMessage = e.getMessage();
+            return null;
+        }
+    }
+
+    /**
+     * Detect the watermark in the calling thread, it is the body of this task.
+     *
+     * @return the detected watermark.
+     * @throws WatermarkNotFoundException if there is no watermark.
+     * @throws WatermarkInputException    if the image is null or too large.
+     */
+    @WorkerThread
+    @NonNull
+    public static DetectionReturnValue detect(@Nullable Bitmap markedBitmap,
+                                              @NonNull MetricsRecorder metrics) throws WatermarkException {
+        return detect(markedBitmap, metrics, ProgressMonitor.NONE);
+    }
+
+    /**
+     * The same as {@link #detect(Bitmap, MetricsRecorder)}, the monitor is
+     * checked and notified while the pixels are read.
+     *
+     * @throws java.util.concurrent.CancellationException if the monitor is cancelled.
+     */
+    @WorkerThread
+    @NonNull
+    public static DetectionReturnValue detect(@Nullable Bitmap markedBitmap,
+                                              @NonNull MetricsRecorder metrics,
+                                              @NonNull ProgressMonitor monitor) throws WatermarkException {
         DetectionReturnValue resultValue = new DetectionReturnValue();
 
         if (markedBitmap == null) {
-            listener.onFailure(ERROR_BITMAP_NULL);
-            return null;
+            throw new WatermarkInputException(ERROR_BITMAP_NULL);
         }
 
         if (markedBitmap.getWidth() > MAX_IMAGE_SIZE || markedBitmap.getHeight() > MAX_IMAGE_SIZE) {
-            listener.onFailure(WARNING_BIG_IMAGE);
-            return null;
+            throw new WatermarkInputException(WARNING_BIG_IMAGE);
         }
 
-        int[] pixels = getBitmapPixels(markedBitmap);
+        int width = markedBitmap.getWidth();
+        int height = markedBitmap.getHeight();
+        long startTime = metrics.start();
+        PixelBuffer pixels = toPixelBuffer(markedBitmap);
+        metrics.end(Stage.EXTRACT_PIXELS, startTime, 4L * width * height, width, height, 0);
 
-        // divide and conquer
-        if (pixels.length < CHUNK_SIZE) {
-            int[] watermarkRGB = pixel2ARGBArray(pixels);
-            double[] watermarkArray = copyFromIntArray(watermarkRGB);
-            FastDctFft.transform(watermarkArray);
+        startTime = metrics.start();
+        String resultString = FDDetector.detect(pixels, monitor);
+        // the transform works on a copy of the pixels, and a double
+        // array of the channels of every chunk.
+        metrics.end(Stage.TRANSFORM, startTime, (4L + 4L * (4 + 8)) * width * height,
+                width, height, 0);
 
-            //TODO: do some operations with colorTempArray.
-
-
-        } else {
-            int numOfChunks = (int) Math.ceil((double) pixels.length / CHUNK_SIZE);
-            for (int i = 0; i < numOfChunks; i++) {
-                int start = i * CHUNK_SIZE;
-                int length = Math.min(pixels.length - start, CHUNK_SIZE);
-                int[] temp = new int[length];
-                System.arraycopy(pixels, start, temp, 0, length);
-                double[] colorTempArray = copyFromIntArray(pixel2ARGBArray(temp));
-                FastDctFft.transform(colorTempArray);
-
-                //TODO: do some operations with colorTempArray.
-
-            }
-        }
-
-/*        TODO: new detection operations will replace this block.
-        String resultString;
-
-        if (binaryString.contains(LSB_TEXT_PREFIX_FLAG) && binaryString.contains(LSB_TEXT_SUFFIX_FLAG)) {
-            resultString = getBetweenStrings(binaryString, true, listener);
-            resultString = binaryToString(resultString);
+        if (resultString != null) {
             resultValue.setWatermarkString(resultString);
-        } else if (binaryString.contains(LSB_IMG_PREFIX_FLAG) && binaryString.contains(LSB_IMG_SUFFIX_FLAG)) {
-            binaryString = getBetweenStrings(binaryString, false, listener);
-            resultString = binaryToString(binaryString);
-            resultValue.setWatermarkBitmap(BitmapUtils.stringToBitmap(resultString));
-        }*/
+        }
 
+        if (!resultValue.hasWatermark()) {
+            throw new WatermarkNotFoundException(ERROR_DETECT_FAILED);
+        }
         return resultValue;
     }
 
     @Override
     protected void onPostExecute(DetectionReturnValue detectionReturnValue) {
         if (detectionReturnValue == null) {
-            listener.onFailure(ERROR_DETECT_FAILED);
+            listener.onFailure(failureMessage);
             return;
         }
 
-        if (detectionReturnValue.getWatermarkString() != null &&
-                !"".equals(detectionReturnValue.getWatermarkString()) ||
-                detectionReturnValue.getWatermarkBitmap() != null) {
-            listener.onSuccess(detectionReturnValue);
-        } else {
-            listener.onFailure(ERROR_DETECT_FAILED);
-        }
+        listener.onSuccess(detectionReturnValue);
         super.onPostExecute(detectionReturnValue);
     }
 }
\ No newline at end of file
@@ -19,22 +19,31 @@ package com.watermark.androidwm.task;
 
 import android.content.Context;
 import android.graphics.Bitmap;
-import android.graphics.Color;
 import android.os.AsyncTask;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
 
+import com.watermark.androidwm.WatermarkCapacityException;
+import com.watermark.androidwm.WatermarkException;
+import com.watermark.androidwm.WatermarkInputException;
 import com.watermark.androidwm.bean.WatermarkText;
 import com.watermark.androidwm.listener.BuildFinishListener;
+import com.watermark.androidwm.listener.WatermarkMetricsListener.Stage;
 import com.watermark.androidwm.bean.AsyncTaskParams;
-import com.watermark.androidwm.utils.FastDctFft;
-
-import static com.watermark.androidwm.utils.BitmapUtils.pixel2ARGBArray;
-import static com.watermark.androidwm.utils.BitmapUtils.getBitmapPixels;
-import static com.watermark.androidwm.utils.BitmapUtils.textAsBitmap;
+import com.watermark.androidwm.core.FDEmbedder;
+import com.watermark.androidwm.core.PixelBuffer;
+import com.watermark.androidwm.core.ProgressMonitor;
+import com.watermark.androidwm.utils.BitmapPool;
+import com.watermark.androidwm.utils.MetricsRecorder;
+import com.watermark.androidwm.utils.TextBitmapCache;
+
+import static com.watermark.androidwm.utils.BitmapUtils.copyToBitmap;
+import static com.watermark.androidwm.utils.BitmapUtils.toPixelBuffer;
 import static com.watermark.androidwm.utils.Constant.ERROR_CREATE_FAILED;
 import static com.watermark.androidwm.utils.Constant.ERROR_NO_BACKGROUND;
 import static com.watermark.androidwm.utils.Constant.ERROR_NO_WATERMARKS;
 import static com.watermark.androidwm.utils.Constant.ERROR_PIXELS_NOT_ENOUGH;
-import static com.watermark.androidwm.utils.StringUtils.copyFromIntArray;
 
 /**
  * This is a tack that use Fast Fourier Transform for an image, to
@@ -45,6 +54,7 @@ import static com.watermark.androidwm.utils.StringUtils.copyFromIntArray;
 public class FDWatermarkTask extends AsyncTask<AsyncTaskParams, Void, Bitmap> {
 
     private BuildFinishListener<Bitmap> listener;
+    private String failureMessage = ERROR_CREATE_FAILED;
 
     public FDWatermarkTask(BuildFinishListener<Bitmap> callback) {
         this.listener = callback;
@@ -52,109 +62,142 @@ public class FDWatermarkTask extends AsyncTask<AsyncTaskParams, Void, Bitmap> {
 
     @Override
     protected Bitmap doInBackground(AsyncTaskParams... params) {
-        Bitmap backgroundBitmap = params[0].getBackgroundImg();
-        WatermarkText watermarkText = params[0].getWatermarkText();
-        Bitmap watermarkBitmap = params[0].getWatermarkImg();
-        Context context = params[0].getContext();
+        try {
+            return build(params[0]);
+        } catch (WatermarkException e) {
+            failureMessage = e.getMessage();
+            return null;
+        }
+    }
+
+    /**
+     * Build the watermark in the calling thread, it is the body of this task.
+     *
+     * @return the watermarked bitmap.
+     * @throws WatermarkCapacityException if the background is too small for the watermark.
+     * @throws WatermarkInputException    if the background or the watermark is missing.
+     */
+    @WorkerThread
+    @NonNull
+    public static Bitmap build(@NonNull AsyncTaskParams params) throws WatermarkException {
+        return build(params, ProgressMonitor.NONE);
+    }
+
+    /**
+     * The same as {@link #build(AsyncTaskParams)}, the monitor is checked
+     * and notified while the payload is put into the background.
+     *
+     * @throws java.util.concurrent.CancellationException if the monitor is cancelled.
+     */
+    @WorkerThread
+    @NonNull
+    public static Bitmap build(@NonNull AsyncTaskParams params, @NonNull ProgressMonitor monitor)
+            throws WatermarkException {
+        Bitmap backgroundBitmap = params.getBackgroundImg();
 
         if (backgroundBitmap == null) {
-            listener.onFailure(ERROR_NO_BACKGROUND);
-            return null;
+            throw new WatermarkInputException(ERROR_NO_BACKGROUND);
+        }
+
+        MetricsRecorder metrics = params.getMetricsRecorder();
+        long startTime = metrics.start();
+        int[] watermarkColorArray = createPayload(params.getContext(),
+                params.getWatermarkImg(), params.getWatermarkText());
+        if (watermarkColorArray == null) {
+            throw new WatermarkInputException(ERROR_NO_WATERMARKS);
+        }
+        metrics.end(Stage.PAYLOAD, startTime, 4L * watermarkColorArray.length, 0, 0,
+                watermarkColorArray.length);
+
+        Bitmap outputBitmap = embedPayload(backgroundBitmap, watermarkColorArray,
+                params.getOutputBitmap(), params.getOutputConfig(), metrics, monitor);
+        if (outputBitmap == null) {
+            throw new WatermarkCapacityException(ERROR_PIXELS_NOT_ENOUGH);
         }
+        return outputBitmap;
+    }
 
+    /**
+     * Convert the watermark into the color array which will be put into
+     * the frequency domain of the background. The result only depends on
+     * the watermark, so it can be reused for many backgrounds.
+     *
+     * @return the color array, or null if there is no watermark.
+     */
+    @Nullable
+    public static int[] createPayload(@NonNull Context context,
+                                      @Nullable Bitmap watermarkBitmap,
+                                      @Nullable WatermarkText watermarkText) {
         if (watermarkText != null) {
-            watermarkBitmap = textAsBitmap(context, watermarkText);
+            watermarkBitmap = TextBitmapCache.getInstance().get(context, watermarkText);
         }
 
         if (watermarkBitmap == null) {
-            listener.onFailure(ERROR_NO_WATERMARKS);
             return null;
         }
 
-        int[] watermarkPixels = getBitmapPixels(watermarkBitmap);
-        int[] watermarkColorArray = pixel2ARGBArray(watermarkPixels);
-        Bitmap outputBitmap = Bitmap.createBitmap(backgroundBitmap.getWidth(), backgroundBitmap.getHeight(),
-                backgroundBitmap.getConfig());
-
-        // convert the background bitmap into pixel array.
-        int[] backgroundPixels = getBitmapPixels(backgroundBitmap);
-
-        if (watermarkColorArray.length > backgroundPixels.length * 4) {
-            listener.onFailure(ERROR_PIXELS_NOT_ENOUGH);
-        } else {
-            // divide and conquer
-            // use fixed chunk size or the size of watermark image.
-            if (backgroundPixels.length < watermarkColorArray.length) {
-                int[] backgroundColorArray = pixel2ARGBArray(backgroundPixels);
-                double[] backgroundColorArrayD = copyFromIntArray(backgroundColorArray);
-
-                FastDctFft.transform(backgroundColorArrayD);
-
-                //TODO: do the operations.
-
-                FastDctFft.inverseTransform(backgroundColorArrayD);
-                for (int i = 0; i < backgroundPixels.length; i++) {
-                    int color = Color.argb(
-                            (int) backgroundColorArrayD[4 * i],
-                            (int) backgroundColorArrayD[4 * i + 1],
-                            (int) backgroundColorArrayD[4 * i + 2],
-                            (int) backgroundColorArrayD[4 * i + 3]
-                    );
-
-                    backgroundPixels[i] = color;
-                }
-            } else {
-                // use fixed chunk size or the size of watermark image.
-                int numOfChunks = (int) Math.ceil((double) backgroundPixels.length / watermarkColorArray.length);
-                for (int i = 0; i < numOfChunks; i++) {
-                    int start = i * watermarkColorArray.length;
-                    int length = Math.min(backgroundPixels.length - start, watermarkColorArray.length);
-                    int[] temp = new int[length];
-                    System.arraycopy(backgroundPixels, start, temp, 0, length);
-                    double[] colorTempD = copyFromIntArray(pixel2ARGBArray(temp));
-                    FastDctFft.transform(colorTempD);
-
-//                    for (int j = 0; j < length; j++) {
-//                        colorTempD[4 * j] = colorTempD[4 * j] + watermarkColorArray[j];
-//                        colorTempD[4 * j + 1] = colorTempD[4 * j + 1] + watermarkColorArray[j];
-//                        colorTempD[4 * j + 2] = colorTempD[4 * j + 2] + watermarkColorArray[j];
-//                        colorTempD[4 * j + 3] = colorTempD[4 * j + 3] + watermarkColorArray[j];
-//                    }
-
-                    double enhanceNum = 1;
-
-                    // The energy in frequency scaled.
-                    for (int j = 0; j < length; j++) {
-                        colorTempD[4 * j] = colorTempD[4 * j] * enhanceNum;
-                        colorTempD[4 * j + 1] = colorTempD[4 * j + 1] * enhanceNum;
-                        colorTempD[4 * j + 2] = colorTempD[4 * j + 2] * enhanceNum;
-                        colorTempD[4 * j + 3] = colorTempD[4 * j + 3] * enhanceNum;
-                    }
-
-                    //TODO: do the operations.
-
-
-                    FastDctFft.inverseTransform(colorTempD);
-
-                    for (int j = 0; j < length; j++) {
-                        int color = Color.argb(
-                                (int) colorTempD[4 * j],
-                                (int) colorTempD[4 * j + 1],
-                                (int) colorTempD[4 * j + 2],
-                                (int) colorTempD[4 * j + 3]
-                        );
-
-                        backgroundPixels[start + j] = color;
-                    }
-                }
-            }
+        return FDEmbedder.createPayload(toPixelBuffer(watermarkBitmap));
+    }
 
-            outputBitmap.setPixels(backgroundPixels, 0, backgroundBitmap.getWidth(), 0, 0,
-                    backgroundBitmap.getWidth(), backgroundBitmap.getHeight());
-            return outputBitmap;
-        }
+    /**
+     * Put the color array into the frequency domain of the background.
+     *
+     * @param outputBitmap the mutable bitmap to render into, if it is null,
+     *                     a bitmap from the {@link BitmapPool} will be used.
+     * @param outputConfig the config of the new output bitmap, if it is null,
+     *                     the config of the background will be used.
+     * @return the watermarked bitmap, or null if the background
+     * doesn't have enough pixels.
+     */
+    @Nullable
+    public static Bitmap embedPayload(@NonNull Bitmap backgroundBitmap,
+                                      @NonNull int[] watermarkColorArray,
+                                      @Nullable Bitmap outputBitmap,
+                                      @Nullable Bitmap.Config outputConfig) {
+        return embedPayload(backgroundBitmap, watermarkColorArray, outputBitmap, outputConfig,
+                MetricsRecorder.NONE, ProgressMonitor.NONE);
+    }
 
-        return null;
+    /**
+     * The same as {@link #embedPayload(Bitmap, int[], Bitmap, Bitmap.Config)},
+     * the stages are reported to the recorder, and the monitor is checked
+     * and notified while the payload is put into the background.
+     *
+     * @throws java.util.concurrent.CancellationException if the monitor is cancelled.
+     */
+    @Nullable
+    public static Bitmap embedPayload(@NonNull Bitmap backgroundBitmap,
+                                      @NonNull int[] watermarkColorArray,
+                                      @Nullable Bitmap outputBitmap,
+                                      @Nullable Bitmap.Config outputConfig,
+                                      @NonNull MetricsRecorder metrics,
+                                      @NonNull ProgressMonitor monitor) {
+        int width = backgroundBitmap.getWidth();
+        int height = backgroundBitmap.getHeight();
+        long startTime = metrics.start();
+        PixelBuffer pixels = toPixelBuffer(backgroundBitmap);
+        metrics.end(Stage.EXTRACT_PIXELS, startTime, 4L * width * height, width, height, 0);
+
+        // the transforms work on a copy of the pixels, and a double
+        // array of the channels of every chunk.
+        startTime = metrics.start();
+        if (!FDEmbedder.embed(pixels, watermarkColorArray, pixels, monitor)) {
+            return null;
+        }
+        metrics.end(Stage.TRANSFORM, startTime, (4L + 4L * (4 + 8)) * width * height,
+                width, height, watermarkColorArray.length);
+
+        // every pixel of the output bitmap will be overwritten.
+        startTime = metrics.start();
+        long allocatedBytes = 0;
+        if (outputBitmap == null) {
+            outputBitmap = BitmapPool.getInstance().getDirty(width, height,
+                    outputConfig != null ? outputConfig : backgroundBitmap.getConfig());
+            allocatedBytes = outputBitmap.getAllocationByteCount();
+        }
+        copyToBitmap(pixels, outputBitmap);
+        metrics.end(Stage.SET_PIXELS, startTime, allocatedBytes, width, height, 0);
+        return outputBitmap;
     }
 
     @Override
@@ -163,7 +206,7 @@ public class FDWatermarkTask extends AsyncTask<AsyncTaskParams, Void, Bitmap> {
             if (bitmap != null) {
                 listener.onSuccess(bitmap);
             } else {
-                listener.onFailure(ERROR_CREATE_FAILED);
+                listener.onFailure(failureMessage);
             }
         }
         super.onPostExecute(bitmap);
@@ -18,24 +18,33 @@ package com.watermark.androidwm.task;
 
 import android.graphics.Bitmap;
 import android.os.AsyncTask;
-
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import com.watermark.androidwm.WatermarkException;
+import com.watermark.androidwm.WatermarkInputException;
+import com.watermark.androidwm.WatermarkNotFoundException;
+import com.watermark.androidwm.core.BitPlaneDetector;
+import com.watermark.androidwm.core.BitPlaneLayout;
+import com.watermark.androidwm.core.ImagePayload;
+import com.watermark.androidwm.core.LSBDetector;
+import com.watermark.androidwm.core.PixelBuffer;
+import com.watermark.androidwm.core.ProgressMonitor;
+import com.watermark.androidwm.core.RowSource;
 import com.watermark.androidwm.listener.DetectFinishListener;
+import com.watermark.androidwm.listener.WatermarkMetricsListener.Stage;
 import com.watermark.androidwm.utils.BitmapUtils;
+import com.watermark.androidwm.utils.MetricsRecorder;
+import com.watermark.androidwm.utils.WatermarkExecutors;
+
+import java.nio.charset.Charset;
 
-import static com.watermark.androidwm.utils.BitmapUtils.pixel2ARGBArray;
-import static com.watermark.androidwm.utils.BitmapUtils.getBitmapPixels;
 import static com.watermark.androidwm.utils.Constant.ERROR_BITMAP_NULL;
 import static com.watermark.androidwm.utils.Constant.ERROR_DETECT_FAILED;
-import static com.watermark.androidwm.utils.Constant.LSB_IMG_PREFIX_FLAG;
-import static com.watermark.androidwm.utils.Constant.LSB_IMG_SUFFIX_FLAG;
-import static com.watermark.androidwm.utils.Constant.LSB_TEXT_PREFIX_FLAG;
-import static com.watermark.androidwm.utils.Constant.LSB_TEXT_SUFFIX_FLAG;
+import static com.watermark.androidwm.utils.Constant.LSB_MIN_AGREEING_COPIES;
 import static com.watermark.androidwm.utils.Constant.MAX_IMAGE_SIZE;
 import static com.watermark.androidwm.utils.Constant.WARNING_BIG_IMAGE;
-import static com.watermark.androidwm.utils.StringUtils.binaryToString;
-import static com.watermark.androidwm.utils.StringUtils.getBetweenStrings;
-import static com.watermark.androidwm.utils.StringUtils.intArrayToStringJ;
-import static com.watermark.androidwm.utils.StringUtils.replaceNinesJ;
 
 /**
  * This is a task for watermark image detection.
@@ -45,65 +54,190 @@ import static com.watermark.androidwm.utils.StringUtils.replaceNinesJ;
  */
 public class LSBDetectionTask extends AsyncTask<Bitmap, Void, DetectionReturnValue> {
 
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
     private DetectFinishListener listener;
+    private MetricsRecorder metrics;
+    private String failureMessage = ERROR_DETECT_FAILED;
 
     public LSBDetectionTask(DetectFinishListener listener) {
+        this(listener, MetricsRecorder.NONE);
+    }
+
+    public LSBDetectionTask(DetectFinishListener listener, MetricsRecorder metrics) {
         this.listener = listener;
+        this.metrics = metrics;
     }
 
     @Override
     protected DetectionReturnValue doInBackground(Bitmap... bitmaps) {
-        Bitmap markedBitmap = bitmaps[0];
+        try {
+            return detect(bitmaps[0], metrics);
+        } catch (WatermarkException e) {
+            failureMessage = e.getMessage();
+            return null;
+        }
+    }
+
+    /**
+     * Detect the watermark in the calling thread, it is the body of this task.
+     *
+     * @return the detected watermark.
+     * @throws WatermarkNotFoundException if there is no watermark.
+     * @throws WatermarkInputException    if the image is null or too large.
+     */
+    @WorkerThread
+    @NonNull
+    public static DetectionReturnValue detect(@Nullable Bitmap markedBitmap,
+                                              @NonNull MetricsRecorder metrics) throws WatermarkException {
+        return detect(markedBitmap, metrics, ProgressMonitor.NONE);
+    }
+
+    /**
+     * The same as {@link #detect(Bitmap, MetricsRecorder)}, the monitor is
+     * checked and notified while the pixels are read.
+     *
+     * @throws java.util.concurrent.CancellationException if the monitor is cancelled.
+     */
+    @WorkerThread
+    @NonNull
+    public static DetectionReturnValue detect(@Nullable Bitmap markedBitmap,
+                                              @NonNull MetricsRecorder metrics,
+                                              @NonNull ProgressMonitor monitor) throws WatermarkException {
+        return detect(markedBitmap, null, metrics, monitor);
+    }
+
+    /**
+     * The same as {@link #detect(Bitmap, MetricsRecorder, ProgressMonitor)},
+     * for the bit-plane watermark of the layout.
+     *
+     * @param layout the layout of the embedding, if it is null, the decimal
+     *               digits are read. The size of a bit-plane watermarked
+     *               image is not limited by {@code MAX_IMAGE_SIZE}.
+     */
+    @WorkerThread
+    @NonNull
+    public static DetectionReturnValue detect(@Nullable Bitmap markedBitmap,
+                                              @Nullable BitPlaneLayout layout,
+                                              @NonNull MetricsRecorder metrics,
+                                              @NonNull ProgressMonitor monitor) throws WatermarkException {
+        return detect(markedBitmap, layout, LSB_MIN_AGREEING_COPIES, metrics, monitor);
+    }
+
+    /**
+     * The same as {@link #detect(Bitmap, BitPlaneLayout, MetricsRecorder, ProgressMonitor)},
+     * the copies of the decimal digits are decoded by a majority vote on the
+     * stripe pool, see {@link LSBDetector.Voter}.
+     *
+     * @param minAgreeingCopies the lead of the majority of every bit to stop at,
+     *                          with 1 only the first copy is read.
+     */
+    @WorkerThread
+    @NonNull
+    public static DetectionReturnValue detect(@Nullable Bitmap markedBitmap,
+                                              @Nullable BitPlaneLayout layout,
+                                              int minAgreeingCopies,
+                                              @NonNull MetricsRecorder metrics,
+                                              @NonNull ProgressMonitor monitor) throws WatermarkException {
         DetectionReturnValue resultValue = new DetectionReturnValue();
 
         if (markedBitmap == null) {
-            listener.onFailure(ERROR_BITMAP_NULL);
-            return null;
+            throw new WatermarkInputException(ERROR_BITMAP_NULL);
         }
 
-        if (markedBitmap.getWidth() > MAX_IMAGE_SIZE || markedBitmap.getHeight() > MAX_IMAGE_SIZE) {
-            listener.onFailure(WARNING_BIG_IMAGE);
-            return null;
+        // the bit-plane reader only reads the header and the data it
+        // describes, so it works on a background of any size.
+        if (layout == null
+                && (markedBitmap.getWidth() > MAX_IMAGE_SIZE || markedBitmap.getHeight() > MAX_IMAGE_SIZE)) {
+            throw new WatermarkInputException(WARNING_BIG_IMAGE);
         }
 
-        int[] pixels = getBitmapPixels(markedBitmap);
-        int[] colorArray = pixel2ARGBArray(pixels);
+        int width = markedBitmap.getWidth();
+        int height = markedBitmap.getHeight();
+        long startTime = metrics.start();
+        LSBDetector.Result result;
+        if (layout != null) {
+            result = BitPlaneDetector.detect(new BitmapRows(markedBitmap), layout,
+                    WatermarkExecutors.getStripePool(), monitor);
+        } else {
+            result = LSBDetector.detect(new BitmapRows(markedBitmap), minAgreeingCopies,
+                    WatermarkExecutors.getStripePool(), monitor);
+        }
+        // a single row of pixels, and the payload bytes.
+        int payloadSize = result != null ? result.getData().length : 0;
+        metrics.end(Stage.DETECT, startTime, 4L * width + payloadSize, width, height, payloadSize);
+
+        if (result != null && result.isImage()) {
+            startTime = metrics.start();
+            Bitmap watermarkBitmap = decodeImage(result.getData());
+            if (watermarkBitmap != null) {
+                metrics.end(Stage.PAYLOAD, startTime, watermarkBitmap.getAllocationByteCount(),
+                        watermarkBitmap.getWidth(), watermarkBitmap.getHeight(), 0);
+            }
+            resultValue.setWatermarkBitmap(watermarkBitmap);
+        } else if (result != null) {
+            resultValue.setWatermarkString(result.getWatermarkString());
+        }
+        if (result != null) {
+            resultValue.setConfidence(result.getConfidence());
+        }
 
-        for (int i = 0; i < colorArray.length; i++) {
-            colorArray[i] = colorArray[i] % 10;
+        if (!resultValue.hasWatermark()) {
+            throw new WatermarkNotFoundException(ERROR_DETECT_FAILED);
         }
+        return resultValue;
+    }
 
-        replaceNinesJ(colorArray);
-        String binaryString = intArrayToStringJ(colorArray);
-        String resultString;
-
-        if (binaryString.contains(LSB_TEXT_PREFIX_FLAG) && binaryString.contains(LSB_TEXT_SUFFIX_FLAG)) {
-            resultString = getBetweenStrings(binaryString, true, listener);
-            resultString = binaryToString(resultString);
-            resultValue.setWatermarkString(resultString);
-        } else if (binaryString.contains(LSB_IMG_PREFIX_FLAG) && binaryString.contains(LSB_IMG_SUFFIX_FLAG)) {
-            binaryString = getBetweenStrings(binaryString, false, listener);
-            resultString = binaryToString(binaryString);
-            resultValue.setWatermarkBitmap(BitmapUtils.stringToBitmap(resultString));
+    /**
+     * Rebuild the watermark bitmap from the compact bytes of an
+     * {@link ImagePayload}, or from the Base64 string of a PNG, which
+     * was embedded by the older versions.
+     *
+     * @return the bitmap, or null if the bytes can't be decoded.
+     */
+    @Nullable
+    private static Bitmap decodeImage(byte[] data) {
+        if (!ImagePayload.isCompact(data)) {
+            return BitmapUtils.stringToBitmap(new String(data, UTF_8));
         }
+        PixelBuffer image = ImagePayload.decode(data);
+        return image != null ? BitmapUtils.toBitmap(image) : null;
+    }
 
-        return resultValue;
+    /**
+     * The rows of a bitmap, they are copied out of it one at a time.
+     */
+    private static final class BitmapRows implements RowSource {
+        private final Bitmap bitmap;
+
+        BitmapRows(Bitmap bitmap) {
+            this.bitmap = bitmap;
+        }
+
+        @Override
+        public int getWidth() {
+            return bitmap.getWidth();
+        }
+
+        @Override
+        public int getHeight() {
+            return bitmap.getHeight();
+        }
+
+        @Override
+        public void getRow(int y, int[] row) {
+            bitmap.getPixels(row, 0, bitmap.getWidth(), 0, y, bitmap.getWidth(), 1);
+        }
     }
 
     @Override
     protected void onPostExecute(DetectionReturnValue detectionReturnValue) {
         if (detectionReturnValue == null) {
-            listener.onFailure(ERROR_DETECT_FAILED);
+            listener.onFailure(failureMessage);
             return;
         }
 
-        if (detectionReturnValue.getWatermarkString() != null &&
-                !"".equals(detectionReturnValue.getWatermarkString()) ||
-                detectionReturnValue.getWatermarkBitmap() != null) {
-            listener.onSuccess(detectionReturnValue);
-        } else {
-            listener.onFailure(ERROR_DETECT_FAILED);
-        }
+        listener.onSuccess(detectionReturnValue);
         super.onPostExecute(detectionReturnValue);
     }
 
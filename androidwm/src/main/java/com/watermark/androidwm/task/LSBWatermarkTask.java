@@ -17,27 +17,41 @@
 package com.watermark.androidwm.task;
 
 import android.graphics.Bitmap;
-import android.graphics.Color;
 import android.os.AsyncTask;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
 
+import com.watermark.androidwm.WatermarkCapacityException;
+import com.watermark.androidwm.WatermarkException;
+import com.watermark.androidwm.WatermarkInputException;
 import com.watermark.androidwm.bean.WatermarkText;
 import com.watermark.androidwm.listener.BuildFinishListener;
+import com.watermark.androidwm.listener.WatermarkMetricsListener.Stage;
 import com.watermark.androidwm.bean.AsyncTaskParams;
-import com.watermark.androidwm.utils.BitmapUtils;
+import com.watermark.androidwm.core.BitPlaneEmbedder;
+import com.watermark.androidwm.core.BitPlaneLayout;
+import com.watermark.androidwm.core.ImagePayload;
+import com.watermark.androidwm.core.LSBEmbedder;
+import com.watermark.androidwm.core.PayloadHeader;
+import com.watermark.androidwm.core.PixelBuffer;
+import com.watermark.androidwm.core.ProgressMonitor;
+import com.watermark.androidwm.core.RowWriter;
+import com.watermark.androidwm.core.Stripes;
+import com.watermark.androidwm.utils.BitmapPool;
+import com.watermark.androidwm.utils.MetricsRecorder;
+import com.watermark.androidwm.utils.WatermarkExecutors;
 
-import static com.watermark.androidwm.utils.BitmapUtils.pixel2ARGBArray;
-import static com.watermark.androidwm.utils.BitmapUtils.getBitmapPixels;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+
+import static com.watermark.androidwm.utils.BitmapUtils.toPixelBuffer;
 import static com.watermark.androidwm.utils.Constant.ERROR_CREATE_FAILED;
+import static com.watermark.androidwm.utils.Constant.ERROR_LSB_CONFIG;
 import static com.watermark.androidwm.utils.Constant.ERROR_NO_BACKGROUND;
 import static com.watermark.androidwm.utils.Constant.ERROR_NO_WATERMARKS;
 import static com.watermark.androidwm.utils.Constant.ERROR_PIXELS_NOT_ENOUGH;
-import static com.watermark.androidwm.utils.Constant.LSB_IMG_PREFIX_FLAG;
-import static com.watermark.androidwm.utils.Constant.LSB_IMG_SUFFIX_FLAG;
 import static com.watermark.androidwm.utils.Constant.LSB_TEXT_PREFIX_FLAG;
-import static com.watermark.androidwm.utils.Constant.LSB_TEXT_SUFFIX_FLAG;
-import static com.watermark.androidwm.utils.StringUtils.replaceSingleDigit;
-import static com.watermark.androidwm.utils.StringUtils.stringToBinary;
-import static com.watermark.androidwm.utils.StringUtils.stringToIntArray;
 
 /**
  * This is a background task for adding the specific invisible text
@@ -50,6 +64,7 @@ import static com.watermark.androidwm.utils.StringUtils.stringToIntArray;
 public class LSBWatermarkTask extends AsyncTask<AsyncTaskParams, Void, Bitmap> {
 
     private BuildFinishListener<Bitmap> listener;
+    private String failureMessage = ERROR_CREATE_FAILED;
 
     public LSBWatermarkTask(BuildFinishListener<Bitmap> callback) {
         this.listener = callback;
@@ -57,84 +72,310 @@ public class LSBWatermarkTask extends AsyncTask<AsyncTaskParams, Void, Bitmap> {
 
     @Override
     protected Bitmap doInBackground(AsyncTaskParams... params) {
-        Bitmap backgroundBitmap = params[0].getBackgroundImg();
-        WatermarkText watermarkText = params[0].getWatermarkText();
-        Bitmap watermarkBitmap = params[0].getWatermarkImg();
-        String watermarkString;
+        try {
+            return build(params[0]);
+        } catch (WatermarkException e) {
+            failureMessage = e.getMessage();
+            return null;
+        }
+    }
+
+    /**
+     * Build the watermark in the calling thread, it is the body of this task.
+     *
+     * @return the watermarked bitmap.
+     * @throws WatermarkCapacityException if the background is too small for the watermark.
+     * @throws WatermarkInputException    if the background or the watermark is missing.
+     */
+    @WorkerThread
+    @NonNull
+    public static Bitmap build(@NonNull AsyncTaskParams params) throws WatermarkException {
+        return build(params, ProgressMonitor.NONE);
+    }
+
+    /**
+     * The same as {@link #build(AsyncTaskParams)}, the monitor is checked
+     * and notified while the payload is put into the background.
+     *
+     * @throws java.util.concurrent.CancellationException if the monitor is cancelled.
+     */
+    @WorkerThread
+    @NonNull
+    public static Bitmap build(@NonNull AsyncTaskParams params, @NonNull ProgressMonitor monitor)
+            throws WatermarkException {
+        Bitmap backgroundBitmap = params.getBackgroundImg();
 
         if (backgroundBitmap == null) {
-            listener.onFailure(ERROR_NO_BACKGROUND);
-            return null;
+            throw new WatermarkInputException(ERROR_NO_BACKGROUND);
         }
 
-        // convert the watermark bitmap into a String.
-        if (watermarkBitmap != null) {
-            watermarkString = BitmapUtils.bitmapToString(watermarkBitmap);
-        } else {
-            watermarkString = watermarkText.getText();
+        if (!canHoldPayload(params.getOutputBitmap(), params.getOutputConfig())) {
+            throw new WatermarkInputException(ERROR_LSB_CONFIG);
         }
 
-        if (watermarkString == null) {
-            listener.onFailure(ERROR_NO_WATERMARKS);
-            return null;
+        MetricsRecorder metrics = params.getMetricsRecorder();
+        if (params.getBitPlaneLayout() != null) {
+            return buildBitPlane(params, metrics, monitor);
         }
 
-        Bitmap outputBitmap = Bitmap.createBitmap(backgroundBitmap.getWidth(), backgroundBitmap.getHeight(),
-                backgroundBitmap.getConfig());
+        long startTime = metrics.start();
+        int[] watermarkColorArray = createPayload(params.getWatermarkImg(),
+                params.getWatermarkText(), params.getImageFormat());
+        if (watermarkColorArray == null) {
+            throw new WatermarkInputException(ERROR_NO_WATERMARKS);
+        }
+        metrics.end(Stage.PAYLOAD, startTime, 4L * watermarkColorArray.length, 0, 0,
+                dataBytes(watermarkColorArray));
 
-        int[] backgroundPixels = getBitmapPixels(backgroundBitmap);
-        int[] backgroundColorArray = pixel2ARGBArray(backgroundPixels);
+        Bitmap outputBitmap = embedPayload(backgroundBitmap, watermarkColorArray,
+                params.getOutputBitmap(), params.getOutputConfig(), metrics, monitor);
+        if (outputBitmap == null) {
+            throw new WatermarkCapacityException(ERROR_PIXELS_NOT_ENOUGH);
+        }
+        return outputBitmap;
+    }
 
-        // convert the Sting into a binary string, and, replace the single digit number.
-        // using the rebuilt pixels to create a new watermarked image.
-        String watermarkBinary = stringToBinary(watermarkString);
+    private static Bitmap buildBitPlane(AsyncTaskParams params, MetricsRecorder metrics,
+                                        ProgressMonitor monitor) throws WatermarkException {
+        long startTime = metrics.start();
+        byte[] payload = createBitPlanePayload(params.getWatermarkImg(), params.getWatermarkText(),
+                params.getImageFormat());
+        if (payload == null) {
+            throw new WatermarkInputException(ERROR_NO_WATERMARKS);
+        }
+        metrics.end(Stage.PAYLOAD, startTime, payload.length, 0, 0, payload.length - PayloadHeader.SIZE);
 
-        if (watermarkBitmap != null) {
-            watermarkBinary = LSB_IMG_PREFIX_FLAG + watermarkBinary + LSB_IMG_SUFFIX_FLAG;
-        } else {
-            watermarkBinary = LSB_TEXT_PREFIX_FLAG + watermarkBinary + LSB_TEXT_SUFFIX_FLAG;
-        }
-
-        int[] watermarkColorArray = stringToIntArray(watermarkBinary);
-        if (watermarkColorArray.length > backgroundColorArray.length) {
-            listener.onFailure(ERROR_PIXELS_NOT_ENOUGH);
-        } else {
-            int chunkSize = watermarkColorArray.length;
-            int numOfChunks = (int) Math.ceil((double) backgroundColorArray.length / chunkSize);
-            for (int i = 0; i < numOfChunks - 1; i++) {
-                int start = i * chunkSize;
-                for (int j = 0; j < chunkSize; j++) {
-                    backgroundColorArray[start + j] = replaceSingleDigit(backgroundColorArray[start + j]
-                            , watermarkColorArray[j]);
-                }
-            }
+        Bitmap outputBitmap = embedBitPlanePayload(params.getBackgroundImg(), payload,
+                params.getOutputBitmap(), params.getBitPlaneLayout(), metrics, monitor);
+        if (outputBitmap == null) {
+            throw new WatermarkCapacityException(ERROR_PIXELS_NOT_ENOUGH);
+        }
+        return outputBitmap;
+    }
 
-            for (int i = 0; i < backgroundPixels.length; i++) {
-                int color = Color.argb(
-                        backgroundColorArray[4 * i],
-                        backgroundColorArray[4 * i + 1],
-                        backgroundColorArray[4 * i + 2],
-                        backgroundColorArray[4 * i + 3]
-                );
-                backgroundPixels[i] = color;
-            }
+    /**
+     * Convert the watermark into the digits which will be put into the
+     * background, with the prefix and suffix flags. The result only
+     * depends on the watermark, so it can be reused for many backgrounds.
+     *
+     * @return the payload digits, or null if there is no watermark.
+     */
+    @Nullable
+    public static int[] createPayload(@Nullable Bitmap watermarkBitmap,
+                                      @Nullable WatermarkText watermarkText) {
+        return createPayload(watermarkBitmap, watermarkText, ImagePayload.Format.ARGB);
+    }
 
-            outputBitmap.setPixels(backgroundPixels, 0, backgroundBitmap.getWidth(), 0, 0,
-                    backgroundBitmap.getWidth(), backgroundBitmap.getHeight());
+    /**
+     * The same as {@link #createPayload(Bitmap, WatermarkText)}, the pixels
+     * of the watermark bitmap are packed in the format and deflated, see
+     * {@link ImagePayload}.
+     */
+    @Nullable
+    public static int[] createPayload(@Nullable Bitmap watermarkBitmap,
+                                      @Nullable WatermarkText watermarkText,
+                                      @NonNull ImagePayload.Format imageFormat) {
+        if (watermarkBitmap != null) {
+            return LSBEmbedder.createPayload(ImagePayload.encode(toPixelBuffer(watermarkBitmap),
+                    imageFormat), true);
+        } else if (watermarkText != null && watermarkText.getText() != null) {
+            return LSBEmbedder.createPayload(watermarkText.getText(), false);
+        }
+        return null;
+    }
 
-            return outputBitmap;
+    /**
+     * Convert the watermark into the bytes of a bit-plane watermark, with
+     * the header. The result only depends on the watermark, so it can be
+     * reused for many backgrounds.
+     *
+     * @return the payload bytes, or null if there is no watermark.
+     */
+    @Nullable
+    public static byte[] createBitPlanePayload(@Nullable Bitmap watermarkBitmap,
+                                               @Nullable WatermarkText watermarkText) {
+        return createBitPlanePayload(watermarkBitmap, watermarkText, ImagePayload.Format.ARGB);
+    }
 
+    /**
+     * The same as {@link #createBitPlanePayload(Bitmap, WatermarkText)}, the
+     * pixels of the watermark bitmap are packed in the format and deflated,
+     * see {@link ImagePayload}.
+     */
+    @Nullable
+    public static byte[] createBitPlanePayload(@Nullable Bitmap watermarkBitmap,
+                                               @Nullable WatermarkText watermarkText,
+                                               @NonNull ImagePayload.Format imageFormat) {
+        if (watermarkBitmap != null) {
+            return BitPlaneEmbedder.createPayload(ImagePayload.encode(toPixelBuffer(watermarkBitmap),
+                    imageFormat), true);
+        } else if (watermarkText != null && watermarkText.getText() != null) {
+            return BitPlaneEmbedder.createPayload(watermarkText.getText(), false);
         }
         return null;
     }
 
+    /**
+     * Replace the single digit numbers of the background with the payload,
+     * and using the rebuilt pixels to create a new watermarked image.
+     *
+     * @param outputBitmap the mutable bitmap to render into, if it is null,
+     *                     a bitmap from the {@link BitmapPool} will be used.
+     * @param outputConfig the config of the new output bitmap, it must be
+     *                     {@link Bitmap.Config#ARGB_8888} or null.
+     * @return the watermarked bitmap, or null if the background
+     * doesn't have enough pixels.
+     */
+    @Nullable
+    public static Bitmap embedPayload(@NonNull Bitmap backgroundBitmap,
+                                      @NonNull int[] watermarkColorArray,
+                                      @Nullable Bitmap outputBitmap,
+                                      @Nullable Bitmap.Config outputConfig) {
+        return embedPayload(backgroundBitmap, watermarkColorArray, outputBitmap, outputConfig,
+                MetricsRecorder.NONE, ProgressMonitor.NONE);
+    }
+
+    /**
+     * The same as {@link #embedPayload(Bitmap, int[], Bitmap, Bitmap.Config)},
+     * the stages are reported to the recorder, and the monitor is checked
+     * and notified while the payload is put into the background.
+     *
+     * @throws java.util.concurrent.CancellationException if the monitor is cancelled.
+     */
+    @Nullable
+    public static Bitmap embedPayload(@NonNull Bitmap backgroundBitmap,
+                                      @NonNull int[] watermarkColorArray,
+                                      @Nullable Bitmap outputBitmap,
+                                      @Nullable Bitmap.Config outputConfig,
+                                      @NonNull MetricsRecorder metrics,
+                                      @NonNull ProgressMonitor monitor) {
+        if (!canHoldPayload(outputBitmap, outputConfig)) {
+            throw new IllegalArgumentException(ERROR_LSB_CONFIG);
+        }
+
+        LSBEmbedder.Writer writer = LSBEmbedder.newWriter(watermarkColorArray,
+                (long) backgroundBitmap.getWidth() * backgroundBitmap.getHeight());
+        if (writer == null) {
+            return null;
+        }
+        return embedPixels(backgroundBitmap, writer, outputBitmap, dataBytes(watermarkColorArray),
+                metrics, monitor);
+    }
+
+    /**
+     * The bytes of the data of a decimal payload, without its flags, as
+     * the metrics report the size of every payload in bytes.
+     */
+    private static int dataBytes(int[] watermarkColorArray) {
+        return Math.max(0, watermarkColorArray.length - 2 * LSB_TEXT_PREFIX_FLAG.length()) / 8;
+    }
+
+    /**
+     * Replace the low bits of the channels of the background with the
+     * payload, as it is described by the layout.
+     *
+     * @param outputBitmap the mutable bitmap to render into, if it is null,
+     *                     a bitmap from the {@link BitmapPool} will be used.
+     * @return the watermarked bitmap, or null if the background
+     * doesn't have enough pixels.
+     * @throws java.util.concurrent.CancellationException if the monitor is cancelled.
+     */
+    @Nullable
+    public static Bitmap embedBitPlanePayload(@NonNull Bitmap backgroundBitmap,
+                                              @NonNull byte[] payload,
+                                              @Nullable Bitmap outputBitmap,
+                                              @NonNull BitPlaneLayout layout,
+                                              @NonNull MetricsRecorder metrics,
+                                              @NonNull ProgressMonitor monitor) {
+        if (!canHoldPayload(outputBitmap, null)) {
+            throw new IllegalArgumentException(ERROR_LSB_CONFIG);
+        }
+
+        BitPlaneEmbedder.Writer writer = BitPlaneEmbedder.newWriter(payload,
+                (long) backgroundBitmap.getWidth() * backgroundBitmap.getHeight(), layout);
+        if (writer == null) {
+            return null;
+        }
+        return embedPixels(backgroundBitmap, writer, outputBitmap, payload.length - PayloadHeader.SIZE,
+                metrics, monitor);
+    }
+
+    /**
+     * Stream the background into the output bitmap through the embedding
+     * kernel, a band of row stripes at a time: the calling thread copies
+     * the rows of a band out of the background, the stripes of the band are
+     * written in parallel on the {@link WatermarkExecutors#getStripePool()},
+     * and the calling thread copies the band into the output bitmap. So the
+     * bitmaps are only touched from the calling thread, and the temporary
+     * pixels are a single stripe per thread, instead of a copy of all the
+     * pixels. The payload needs all the 8 bits of every channel, so a new
+     * output bitmap is always ARGB_8888.
+     */
+    private static Bitmap embedPixels(Bitmap backgroundBitmap, RowWriter writer,
+                                      @Nullable Bitmap outputBitmap, int payloadSize,
+                                      MetricsRecorder metrics, final ProgressMonitor monitor) {
+        int width = backgroundBitmap.getWidth();
+        int height = backgroundBitmap.getHeight();
+        long startTime = metrics.start();
+        ForkJoinPool pool = WatermarkExecutors.getStripePool();
+        int stripes = Stripes.count(height);
+        int bandStripes = Math.min(pool.getParallelism(), stripes);
+        int[] band = new int[bandStripes * Stripes.STRIPE_HEIGHT * width];
+        long allocatedBytes = 4L * band.length;
+        boolean isPooled = outputBitmap == null;
+        if (isPooled) {
+            // every pixel of the output bitmap will be overwritten.
+            outputBitmap = BitmapPool.getInstance().getDirty(width, height, Bitmap.Config.ARGB_8888);
+            allocatedBytes += outputBitmap.getAllocationByteCount();
+        }
+
+        ProgressMonitor cancellation = new ProgressMonitor() {
+            @Override
+            public boolean isCancelled() {
+                return monitor.isCancelled();
+            }
+
+            @Override
+            public void onProgress(int completed, int total) {
+                // the progress is counted in stripes, after every band.
+            }
+        };
+        try {
+            for (int stripe = 0; stripe < stripes; stripe += bandStripes) {
+                int top = stripe * Stripes.STRIPE_HEIGHT;
+                int rows = Math.min(height - top, bandStripes * Stripes.STRIPE_HEIGHT);
+                backgroundBitmap.getPixels(band, 0, width, 0, top, width, rows);
+                PixelBuffer pixels = new PixelBuffer(band, 0, width, width, rows);
+                Stripes.writeRows(pixels, pixels, top, writer, pool, cancellation);
+                outputBitmap.setPixels(band, 0, width, 0, top, width, rows);
+                monitor.onProgress(Math.min(stripes, stripe + bandStripes), stripes);
+            }
+        } catch (CancellationException e) {
+            if (isPooled) {
+                BitmapPool.getInstance().put(outputBitmap);
+            }
+            throw e;
+        }
+        metrics.end(Stage.EMBED, startTime, allocatedBytes, width, height, payloadSize);
+        return outputBitmap;
+    }
+
+    /**
+     * The last digit (or the low bits) of every channel is replaced, so only the config
+     * with 8 bits per channel (alpha included) can hold the payload.
+     */
+    public static boolean canHoldPayload(@Nullable Bitmap outputBitmap, @Nullable Bitmap.Config outputConfig) {
+        Bitmap.Config config = outputBitmap != null ? outputBitmap.getConfig() : outputConfig;
+        return config == null || config == Bitmap.Config.ARGB_8888;
+    }
+
     @Override
     protected void onPostExecute(Bitmap resultBitmap) {
         if (listener != null) {
             if (resultBitmap != null) {
                 listener.onSuccess(resultBitmap);
             } else {
-                listener.onFailure(ERROR_CREATE_FAILED);
+                listener.onFailure(failureMessage);
             }
         }
         super.onPostExecute(resultBitmap);
@@ -0,0 +1,184 @@
+/*
+ *    Copyright 2018 Yizheng Huang
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package com.watermark.androidwm.task;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.watermark.androidwm.WatermarkException;
+import com.watermark.androidwm.core.ProgressMonitor;
+import com.watermark.androidwm.listener.BuildFinishListener;
+import com.watermark.androidwm.listener.ProgressListener;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+
+import timber.log.Timber;
+
+/**
+ * The handle of a watermark job which is running on an {@link Executor}.
+ * It can be waited for or cancelled like any {@link java.util.concurrent.Future},
+ * and the result is also delivered to the listener on the callback executor.
+ * A cancelled job doesn't call the listener.
+ * <p>
+ * The future is also the {@link ProgressMonitor} of its {@link Job}, so a
+ * cancelled job stops at the next row stripe, and the progress of the
+ * stripes is delivered to the {@link ProgressListener}.
+ *
+ * @param <T> the result of the job.
+ * @author huangyz0918 (huangyz0918@gmail.com)
+ */
+public class WatermarkFuture<T> extends FutureTask<T> implements ProgressMonitor {
+    private final BuildFinishListener<T> listener;
+    private final ProgressListener progressListener;
+    private final Executor callbackExecutor;
+
+    /**
+     * A job which checks its monitor between the stripes.
+     *
+     * @param <T> the result of the job.
+     */
+    public interface Job<T> {
+        T run(ProgressMonitor monitor) throws Exception;
+    }
+
+    /**
+     * @param job              the job, a {@link WatermarkException} is delivered
+     *                         to the listener as its message.
+     * @param listener         the listener of the result, can be null.
+     * @param callbackExecutor the executor where the listener is called.
+     */
+    public WatermarkFuture(@NonNull Callable<T> job,
+                           @Nullable BuildFinishListener<T> listener,
+                           @NonNull Executor callbackExecutor) {
+        super(job);
+        this.listener = listener;
+        this.progressListener = null;
+        this.callbackExecutor = callbackExecutor;
+    }
+
+    /**
+     * @param job              the job, a {@link WatermarkException} is delivered
+     *                         to the listener as its message.
+     * @param listener         the listener of the result, can be null.
+     * @param progressListener the listener of the progress, can be null.
+     * @param callbackExecutor the executor where the listeners are called.
+     */
+    public WatermarkFuture(@NonNull Job<T> job,
+                           @Nullable BuildFinishListener<T> listener,
+                           @Nullable ProgressListener progressListener,
+                           @NonNull Executor callbackExecutor) {
+        this(new JobCallable<>(job), listener, progressListener, callbackExecutor);
+    }
+
+    private WatermarkFuture(JobCallable<T> callable,
+                            BuildFinishListener<T> listener,
+                            ProgressListener progressListener,
+                            Executor callbackExecutor) {
+        super(callable);
+        callable.monitor = this;
+        this.listener = listener;
+        this.progressListener = progressListener;
+        this.callbackExecutor = callbackExecutor;
+    }
+
+    /**
+     * Submit the job to the executor.
+     *
+     * @return this {@link WatermarkFuture}.
+     */
+    public WatermarkFuture<T> submit(@NonNull Executor executor) {
+        executor.execute(this);
+        return this;
+    }
+
+    @Override
+    public void onProgress(final int completed, final int total) {
+        if (progressListener == null || isCancelled()) {
+            return;
+        }
+        callbackExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                progressListener.onProgress(completed, total);
+            }
+        });
+    }
+
+    @Override
+    protected void done() {
+        if (listener == null || isCancelled()) {
+            return;
+        }
+
+        T result;
+        try {
+            result = get();
+        } catch (ExecutionException e) {
+            deliverFailure(failureMessage(e.getCause()));
+            return;
+        } catch (CancellationException | InterruptedException e) {
+            return;
+        }
+        deliverSuccess(result);
+    }
+
+    private void deliverSuccess(final T result) {
+        callbackExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                listener.onSuccess(result);
+            }
+        });
+    }
+
+    private void deliverFailure(final String message) {
+        callbackExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                listener.onFailure(message);
+            }
+        });
+    }
+
+    private static String failureMessage(Throwable cause) {
+        if (!(cause instanceof WatermarkException)) {
+            Timber.e(cause, "The watermark job failed.");
+        }
+        return String.valueOf(cause.getMessage());
+    }
+
+    /**
+     * The callable of a {@link Job}, the monitor is set once the future is created.
+     */
+    private static final class JobCallable<T> implements Callable<T> {
+        private final Job<T> job;
+        private ProgressMonitor monitor;
+
+        JobCallable(Job<T> job) {
+            this.job = job;
+        }
+
+        @Override
+        public T call() throws Exception {
+            return job.run(monitor);
+        }
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ *    Copyright 2018 Yizheng Huang
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package com.watermark.androidwm.utils;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A pool of mutable bitmaps, keyed by width, height and {@link Bitmap.Config}.
+ * The bitmaps which are no longer used can be put back into the pool, and the
+ * next build with the same geometry will reuse them instead of allocating a new
+ * pixel buffer. The least recently used bitmaps will be evicted (and recycled)
+ * when the pool grows over its byte budget.
+ *
+ * @author huangyz0918 (huangyz0918@gmail.com)
+ */
+public final class BitmapPool {
+    private static final long DEFAULT_MAX_SIZE = 32L * 1024 * 1024;
+    private static final BitmapPool INSTANCE = new BitmapPool(DEFAULT_MAX_SIZE);
+
+    private final LinkedHashMap<Key, ArrayDeque<Bitmap>> groups =
+            new LinkedHashMap<>(16, 0.75f, true);
+    private long maxSize;
+    private long currentSize;
+
+    private BitmapPool(long maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * The shared pool used by all the build paths of the library.
+     *
+     * @return instance of {@link BitmapPool}
+     */
+    public static BitmapPool getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Set the byte budget of the pool, bitmaps will be evicted
+     * immediately if the pool is over the new budget.
+     *
+     * @param maxSize the max size in bytes, 0 disables the pool.
+     */
+    public synchronized void setMaxSize(long maxSize) {
+        this.maxSize = Math.max(0, maxSize);
+        trimToSize(this.maxSize);
+    }
+
+    public synchronized long getMaxSize() {
+        return maxSize;
+    }
+
+    public synchronized long getCurrentSize() {
+        return currentSize;
+    }
+
+    /**
+     * Get a mutable bitmap with all the pixels cleared to transparent.
+     * A new bitmap is only allocated when there is nothing to reuse.
+     */
+    @NonNull
+    public Bitmap get(int width, int height, @Nullable Bitmap.Config config) {
+        Bitmap bitmap = poll(width, height, config);
+        if (bitmap != null) {
+            bitmap.eraseColor(Color.TRANSPARENT);
+            return bitmap;
+        }
+        return Bitmap.createBitmap(width, height, nonNullConfig(config));
+    }
+
+    /**
+     * Get a mutable bitmap without clearing its content, the caller
+     * must overwrite every pixel of it.
+     * A new bitmap is only allocated when there is nothing to reuse.
+     */
+    @NonNull
+    public Bitmap getDirty(int width, int height, @Nullable Bitmap.Config config) {
+        Bitmap bitmap = poll(width, height, config);
+        if (bitmap != null) {
+            return bitmap;
+        }
+        return Bitmap.createBitmap(width, height, nonNullConfig(config));
+    }
+
+    /**
+     * Put a bitmap back into the pool. The bitmap must not be used by
+     * the caller any more after this call.
+     *
+     * @return true if the bitmap is kept by the pool.
+     */
+    public synchronized boolean put(@Nullable Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled() || !bitmap.isMutable()
+                || bitmap.getConfig() == null || bitmap.getByteCount() > maxSize) {
+            return false;
+        }
+
+        Key key = new Key(bitmap.getWidth(), bitmap.getHeight(), bitmap.getConfig());
+        ArrayDeque<Bitmap> group = groups.get(key);
+        if (group == null) {
+            group = new ArrayDeque<>();
+            groups.put(key, group);
+        } else if (group.contains(bitmap)) {
+            return true;
+        }
+        group.addLast(bitmap);
+        currentSize += bitmap.getByteCount();
+        trimToSize(maxSize);
+        return true;
+    }
+
+    /**
+     * Remove and recycle all the bitmaps in the pool.
+     */
+    public synchronized void clear() {
+        trimToSize(0);
+    }
+
+    private synchronized Bitmap poll(int width, int height, Bitmap.Config config) {
+        ArrayDeque<Bitmap> group = groups.get(new Key(width, height, nonNullConfig(config)));
+        while (group != null && !group.isEmpty()) {
+            Bitmap bitmap = group.pollLast();
+            currentSize -= bitmap.getByteCount();
+            if (!bitmap.isRecycled()) {
+                return bitmap;
+            }
+        }
+        return null;
+    }
+
+    private void trimToSize(long size) {
+        Iterator<Map.Entry<Key, ArrayDeque<Bitmap>>> iterator = groups.entrySet().iterator();
+        while (currentSize > size && iterator.hasNext()) {
+            ArrayDeque<Bitmap> group = iterator.next().getValue();
+            while (currentSize > size && !group.isEmpty()) {
+                Bitmap bitmap = group.pollFirst();
+                currentSize -= bitmap.getByteCount();
+                bitmap.recycle();
+            }
+            if (group.isEmpty()) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private static Bitmap.Config nonNullConfig(Bitmap.Config config) {
+        return config != null ? config : Bitmap.Config.ARGB_8888;
+    }
+
+    /**
+     * The key of a bitmap group in the pool.
+     */
+    private static final class Key {
+        private final int width;
+        private final int height;
+        private final Bitmap.Config config;
+
+        Key(int width, int height, Bitmap.Config config) {
+            this.width = width;
+            this.height = height;
+            this.config = config;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return width == key.width && height == key.height && config == key.config;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = width;
+            result = 31 * result + height;
+            result = 31 * result + config.hashCode();
+            return result;
+        }
+    }
+}
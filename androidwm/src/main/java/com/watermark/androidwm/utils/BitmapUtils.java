@@ -17,6 +17,7 @@
 package com.watermark.androidwm.utils;
 
 import android.annotation.SuppressLint;
+import android.content.ContentResolver;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
@@ -25,7 +26,9 @@ import android.graphics.Color;
 import android.graphics.Matrix;
 import android.graphics.Paint;
 import android.graphics.Rect;
+import android.graphics.RectF;
 import android.graphics.Typeface;
+import android.net.Uri;
 import android.os.Environment;
 import androidx.core.content.res.ResourcesCompat;
 import android.text.StaticLayout;
@@ -34,17 +37,24 @@ import android.util.Base64;
 import android.util.TypedValue;
 
 import com.watermark.androidwm.bean.WatermarkImage;
+import com.watermark.androidwm.core.PixelBuffer;
 import com.watermark.androidwm.bean.WatermarkText;
 
 import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.text.SimpleDateFormat;
 import java.util.Calendar;
 import java.util.Locale;
 
 import timber.log.Timber;
 
+import static com.watermark.androidwm.utils.Constant.ERROR_DECODE_FAILED;
+
 /**
  * Util class for operations with {@link Bitmap}.
  *
@@ -106,9 +116,11 @@ public class BitmapUtils {
 
         int lineCount = staticLayout.getLineCount();
         int height = (int) (baseline + watermarkPaint.descent() + 3) * lineCount;
-        Bitmap image = Bitmap.createBitmap(1, 1, Bitmap.Config.ARGB_8888);
+        Bitmap image;
         if (boundWidth > 0 && height > 0) {
-            image = Bitmap.createBitmap(boundWidth, height, Bitmap.Config.ARGB_8888);
+            image = BitmapPool.getInstance().get(boundWidth, height, Bitmap.Config.ARGB_8888);
+        } else {
+            image = BitmapPool.getInstance().get(1, 1, Bitmap.Config.ARGB_8888);
         }
         Canvas canvas = new Canvas(image);
         canvas.drawColor(watermarkText.getBackgroundColor());
@@ -126,12 +138,10 @@ public class BitmapUtils {
      */
     public static Bitmap resizeBitmap(Bitmap watermarkImg, float size, Bitmap backgroundImg) {
         int bitmapWidth = watermarkImg.getWidth();
-        int bitmapHeight = watermarkImg.getHeight();
         float scale = (backgroundImg.getWidth() * size) / bitmapWidth;
         Matrix matrix = new Matrix();
         matrix.postScale(scale, scale);
-        return Bitmap.createBitmap(watermarkImg, 0, 0,
-                bitmapWidth, bitmapHeight, matrix, true);
+        return transformBitmap(watermarkImg, matrix);
     }
 
     /**
@@ -150,8 +160,176 @@ public class BitmapUtils {
         int width = Math.round(ratio * inputBitmap.getWidth());
         int height = Math.round(ratio * inputBitmap.getHeight());
 
-        return Bitmap.createScaledBitmap(inputBitmap, width,
-                height, true);
+        if (width == inputBitmap.getWidth() && height == inputBitmap.getHeight()
+                && !inputBitmap.isMutable()) {
+            return inputBitmap;
+        }
+
+        Matrix matrix = new Matrix();
+        matrix.setScale((float) width / inputBitmap.getWidth(),
+                (float) height / inputBitmap.getHeight());
+        return transformBitmap(inputBitmap, matrix);
+    }
+
+    /**
+     * Decode an image from a content {@link Uri}, close to the max size.
+     *
+     * @see #decodeSampledBitmap(Context, File, int)
+     */
+    public static Bitmap decodeSampledBitmap(Context context, final Uri uri, int maxImageSize)
+            throws IOException {
+        final ContentResolver resolver = context.getContentResolver();
+        return decodeSampled(context, new BitmapDecoder() {
+            @Override
+            public Bitmap decode(BitmapFactory.Options options) throws IOException {
+                try (InputStream inputStream = resolver.openInputStream(uri)) {
+                    if (inputStream == null) {
+                        throw new FileNotFoundException(uri.toString());
+                    }
+                    return BitmapFactory.decodeStream(inputStream, null, options);
+                }
+            }
+        }, maxImageSize);
+    }
+
+    /**
+     * Decode an image file close to the max size. The bounds are read
+     * first, then the image is decoded with the largest inSampleSize which
+     * keeps it bigger than the target, and scaled down to the target by
+     * inDensity/inTargetDensity in the same decoding, so the full size
+     * image is never allocated. The result may still be a few pixels off,
+     * {@link #resizeBitmap(Bitmap, int)} should be used to finish it.
+     *
+     * @param maxImageSize the max width and height, 0 means the full size.
+     * @return {@link Bitmap} the decoded bitmap.
+     * @throws IOException if the image cannot be read or decoded.
+     */
+    public static Bitmap decodeSampledBitmap(Context context, final File file, int maxImageSize)
+            throws IOException {
+        return decodeSampled(context, new BitmapDecoder() {
+            @Override
+            public Bitmap decode(BitmapFactory.Options options) {
+                return BitmapFactory.decodeFile(file.getAbsolutePath(), options);
+            }
+        }, maxImageSize);
+    }
+
+    /**
+     * Decode an image from a {@link FileDescriptor}, close to the max size.
+     * The position of the descriptor is not changed.
+     *
+     * @see #decodeSampledBitmap(Context, File, int)
+     */
+    public static Bitmap decodeSampledBitmap(Context context, final FileDescriptor fd, int maxImageSize)
+            throws IOException {
+        return decodeSampled(context, new BitmapDecoder() {
+            @Override
+            public Bitmap decode(BitmapFactory.Options options) {
+                return BitmapFactory.decodeFileDescriptor(fd, null, options);
+            }
+        }, maxImageSize);
+    }
+
+    /**
+     * Decode an image from an {@link InputStream}, close to the max size.
+     * A stream can only be read once, so the encoded data is buffered
+     * in memory. The stream is not closed.
+     *
+     * @see #decodeSampledBitmap(Context, File, int)
+     */
+    public static Bitmap decodeSampledBitmap(Context context, InputStream inputStream, int maxImageSize)
+            throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        byte[] bytes = new byte[16 * 1024];
+        int count;
+        while ((count = inputStream.read(bytes)) != -1) {
+            buffer.write(bytes, 0, count);
+        }
+        final byte[] data = buffer.toByteArray();
+        return decodeSampled(context, new BitmapDecoder() {
+            @Override
+            public Bitmap decode(BitmapFactory.Options options) {
+                return BitmapFactory.decodeByteArray(data, 0, data.length, options);
+            }
+        }, maxImageSize);
+    }
+
+    private static Bitmap decodeSampled(Context context, BitmapDecoder decoder, int maxImageSize)
+            throws IOException {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        decoder.decode(options);
+        int width = options.outWidth;
+        int height = options.outHeight;
+        if (width <= 0 || height <= 0) {
+            throw new IOException(ERROR_DECODE_FAILED);
+        }
+
+        options.inJustDecodeBounds = false;
+        if (maxImageSize > 0) {
+            float ratio = Math.min((float) maxImageSize / width, (float) maxImageSize / height);
+            int targetWidth = Math.max(1, Math.round(ratio * width));
+            int targetHeight = Math.max(1, Math.round(ratio * height));
+
+            int sampleSize = 1;
+            while (width / (sampleSize * 2) >= targetWidth && height / (sampleSize * 2) >= targetHeight) {
+                sampleSize *= 2;
+            }
+            options.inSampleSize = sampleSize;
+
+            int sampledWidth = width / sampleSize;
+            if (sampledWidth > targetWidth) {
+                options.inScaled = true;
+                options.inDensity = sampledWidth;
+                options.inTargetDensity = targetWidth;
+            }
+        }
+
+        Bitmap bitmap = decoder.decode(options);
+        if (bitmap == null) {
+            throw new IOException(ERROR_DECODE_FAILED);
+        }
+        // the density is only used for scaling, restore it for drawing.
+        bitmap.setDensity(context.getResources().getDisplayMetrics().densityDpi);
+        return bitmap;
+    }
+
+    /**
+     * A source which can be decoded more than once.
+     */
+    private interface BitmapDecoder {
+        Bitmap decode(BitmapFactory.Options options) throws IOException;
+    }
+
+    /**
+     * Draw a bitmap with the matrix into a new bitmap taken from
+     * the {@link BitmapPool}, the result is the same as
+     * {@link Bitmap#createBitmap(Bitmap, int, int, int, int, Matrix, boolean)}
+     * with filtering, but the pixel buffer can be reused.
+     *
+     * @return {@link Bitmap} the new bitmap.
+     */
+    public static Bitmap transformBitmap(Bitmap source, Matrix matrix) {
+        RectF bounds = new RectF(0, 0, source.getWidth(), source.getHeight());
+        matrix.mapRect(bounds);
+        int width = Math.max(1, Math.round(bounds.width()));
+        int height = Math.max(1, Math.round(bounds.height()));
+
+        Bitmap.Config config = source.getConfig();
+        int paintFlags = Paint.FILTER_BITMAP_FLAG;
+        if (!matrix.rectStaysRect() || config == null) {
+            // the rotated corners must be transparent.
+            config = Bitmap.Config.ARGB_8888;
+            paintFlags |= Paint.ANTI_ALIAS_FLAG;
+        }
+
+        Bitmap output = BitmapPool.getInstance().get(width, height, config);
+        output.setDensity(source.getDensity());
+        Canvas canvas = new Canvas(output);
+        canvas.translate(-bounds.left, -bounds.top);
+        canvas.concat(matrix);
+        canvas.drawBitmap(source, 0, 0, new Paint(paintFlags));
+        return output;
     }
 
     /**
@@ -224,6 +402,29 @@ public class BitmapUtils {
     }
 
 
+    /**
+     * Read all the pixels of a bitmap into a {@link PixelBuffer}.
+     */
+    public static PixelBuffer toPixelBuffer(Bitmap inputBitmap) {
+        return new PixelBuffer(getBitmapPixels(inputBitmap), inputBitmap.getWidth(), inputBitmap.getHeight());
+    }
+
+    /**
+     * Create a new ARGB_8888 bitmap from the pixels of a {@link PixelBuffer}.
+     */
+    public static Bitmap toBitmap(PixelBuffer pixelBuffer) {
+        return Bitmap.createBitmap(pixelBuffer.getPixels(), pixelBuffer.getOffset(), pixelBuffer.getStride(),
+                pixelBuffer.getWidth(), pixelBuffer.getHeight(), Bitmap.Config.ARGB_8888);
+    }
+
+    /**
+     * Write all the pixels of a {@link PixelBuffer} into a bitmap with the same size.
+     */
+    public static void copyToBitmap(PixelBuffer pixelBuffer, Bitmap outputBitmap) {
+        outputBitmap.setPixels(pixelBuffer.getPixels(), pixelBuffer.getOffset(), pixelBuffer.getStride(),
+                0, 0, pixelBuffer.getWidth(), pixelBuffer.getHeight());
+    }
+
     /**
      * Bitmap to Pixels then converting it to an ARGB int array.
      */
@@ -26,6 +26,8 @@ public class Constant {
     public static final String LSB_TEXT_PREFIX_FLAG = "2323";
     public static final String LSB_IMG_SUFFIX_FLAG = "3434";
     public static final String LSB_TEXT_SUFFIX_FLAG = "4545";
+    // the lead of the majority of every bit over the LSB copies.
+    public static final int LSB_MIN_AGREEING_COPIES = 2;
 
     public static final int MAX_IMAGE_SIZE = 1024;
     // use the watermark image's size
@@ -36,6 +38,12 @@ public class Constant {
     public static final String ERROR_NO_BACKGROUND = "No background image! please load an image in your WatermarkBuilder!";
     public static final String ERROR_PIXELS_NOT_ENOUGH = "The Pixels in background are too small to put the watermark in, " +
             "the data has been lost! Please make sure the maxImageSize is bigger enough!";
+    public static final String ERROR_SINGLE_INVISIBLE = "A synchronous invisible watermark must be built from exactly one image or text!";
+    public static final String ERROR_TEMPLATE_INVISIBLE = "An invisible watermark template must contain exactly one image or text!";
+    public static final String ERROR_REGION_INVISIBLE = "The region pipeline only supports visible watermark templates!";
+    public static final String ERROR_DECODE_FAILED = "Cannot decode the background image!";
+    public static final String ERROR_LSB_CONFIG = "The LSB watermark can only be put into an ARGB_8888 output image!";
+    public static final String ERROR_OUTPUT_BITMAP = "The output bitmap must be mutable and have the same size as the background image!";
 
     public static final String ERROR_DETECT_FAILED = "Failed to detect the watermark!";
     public static final String ERROR_NO_WATERMARK_FOUND = "No watermarks found in this image!";
@@ -0,0 +1,106 @@
+/*
+ *    Copyright 2018 Yizheng Huang
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package com.watermark.androidwm.utils;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.watermark.androidwm.listener.WatermarkMetricsListener;
+import com.watermark.androidwm.listener.WatermarkMetricsListener.Stage;
+
+/**
+ * The recorder of the stage metrics, it forwards the stages to a
+ * {@link WatermarkMetricsListener}. Without a listener, it is the
+ * no-op {@link #NONE}, which doesn't even read the clock.
+ *
+ * @author huangyz0918 (huangyz0918@gmail.com)
+ */
+public final class MetricsRecorder {
+    public static final MetricsRecorder NONE = new MetricsRecorder(null);
+
+    private final WatermarkMetricsListener listener;
+
+    private MetricsRecorder(@Nullable WatermarkMetricsListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * to get a recorder for the listener.
+     *
+     * @return {@link #NONE} if the listener is null.
+     */
+    @NonNull
+    public static MetricsRecorder of(@Nullable WatermarkMetricsListener listener) {
+        return listener == null ? NONE : new MetricsRecorder(listener);
+    }
+
+    public boolean isEnabled() {
+        return listener != null;
+    }
+
+    /**
+     * Start a stage.
+     *
+     * @return the start time, for {@link #end(Stage, long, long, int, int, int)}.
+     */
+    public long start() {
+        return listener == null ? 0 : System.nanoTime();
+    }
+
+    /**
+     * Finish a stage which is started by {@link #start()}.
+     */
+    public void end(Stage stage, long startTime, long allocatedBytes,
+                    int width, int height, int payloadSize) {
+        if (listener != null) {
+            listener.onStage(stage, System.nanoTime() - startTime, allocatedBytes,
+                    width, height, payloadSize);
+        }
+    }
+
+    /**
+     * Report a stage which is measured before the listener is known.
+     */
+    public void report(@NonNull Sample sample) {
+        if (listener != null) {
+            listener.onStage(sample.stage, sample.wallTimeNanos, sample.allocatedBytes,
+                    sample.width, sample.height, sample.payloadSize);
+        }
+    }
+
+    /**
+     * A finished stage, kept until there is a listener to report to.
+     */
+    public static final class Sample {
+        private final Stage stage;
+        private final long wallTimeNanos;
+        private final long allocatedBytes;
+        private final int width;
+        private final int height;
+        private final int payloadSize;
+
+        public Sample(Stage stage, long startTime, long allocatedBytes,
+                      int width, int height, int payloadSize) {
+            this.stage = stage;
+            this.wallTimeNanos = System.nanoTime() - startTime;
+            this.allocatedBytes = allocatedBytes;
+            this.width = width;
+            this.height = height;
+            this.payloadSize = payloadSize;
+        }
+    }
+}
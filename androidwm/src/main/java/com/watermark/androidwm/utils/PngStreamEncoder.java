@@ -0,0 +1,202 @@
+/*
+ *    Copyright 2018 Yizheng Huang
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package com.watermark.androidwm.utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * A PNG encoder which writes the image row by row, so the whole image
+ * never needs to be in memory. The output is 8 bit RGBA (color type 6),
+ * every row is written with the "Sub" filter, and the compressed data is
+ * split into IDAT chunks of a fixed size.
+ * <p>
+ * It only depends on java.util.zip, so it is used with any pixel source,
+ * such as the strips of a {@link android.graphics.BitmapRegionDecoder}.
+ *
+ * @author huangyz0918 (huangyz0918@gmail.com)
+ */
+public final class PngStreamEncoder implements Closeable {
+    private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'};
+    private static final int IDAT_SIZE = 64 * 1024;
+    private static final int FILTER_SUB = 1;
+    private static final int BYTES_PER_PIXEL = 4;
+
+    private final OutputStream out;
+    private final int width;
+    private final int height;
+    private final Deflater deflater;
+    private final DeflaterOutputStream deflaterOut;
+    private final byte[] rowBuffer;
+    private int writtenRows;
+    private boolean closed;
+
+    /**
+     * Write the PNG signature and the header.
+     *
+     * @param out              the stream to write into, it is not closed by the encoder.
+     * @param compressionLevel the level of {@link Deflater}, from 0 to 9.
+     */
+    public PngStreamEncoder(OutputStream out, int width, int height, int compressionLevel)
+            throws IOException {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Invalid image size: " + width + "x" + height);
+        }
+        this.out = out;
+        this.width = width;
+        this.height = height;
+        this.rowBuffer = new byte[1 + width * BYTES_PER_PIXEL];
+        this.deflater = new Deflater(compressionLevel);
+        this.deflaterOut = new DeflaterOutputStream(new IdatOutputStream(), deflater, IDAT_SIZE);
+
+        out.write(SIGNATURE);
+        byte[] header = new byte[13];
+        writeInt(header, 0, width);
+        writeInt(header, 4, height);
+        header[8] = 8; // bit depth
+        header[9] = 6; // color type, RGBA
+        header[10] = 0; // compression method
+        header[11] = 0; // filter method
+        header[12] = 0; // no interlace
+        writeChunk("IHDR", header, header.length);
+    }
+
+    public PngStreamEncoder(OutputStream out, int width, int height) throws IOException {
+        this(out, width, height, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * Write the next rows of the image.
+     *
+     * @param pixels the colors in {@link android.graphics.Color} int format (ARGB).
+     * @param offset the index of the first pixel.
+     * @param stride the number of the pixels between two rows.
+     * @param rows   the number of the rows to write.
+     */
+    public void writeRows(int[] pixels, int offset, int stride, int rows) throws IOException {
+        if (closed) {
+            throw new IOException("The encoder is closed.");
+        }
+        if (writtenRows + rows > height) {
+            throw new IllegalArgumentException("Too many rows: " + (writtenRows + rows) + " > " + height);
+        }
+
+        for (int row = 0; row < rows; row++) {
+            int index = offset + row * stride;
+            rowBuffer[0] = FILTER_SUB;
+            int previous = 0;
+            for (int x = 0, pos = 1; x < width; x++, pos += BYTES_PER_PIXEL) {
+                int color = pixels[index + x];
+                rowBuffer[pos] = (byte) ((color >> 16) - (previous >> 16));
+                rowBuffer[pos + 1] = (byte) ((color >> 8) - (previous >> 8));
+                rowBuffer[pos + 2] = (byte) (color - previous);
+                rowBuffer[pos + 3] = (byte) ((color >>> 24) - (previous >>> 24));
+                previous = color;
+            }
+            deflaterOut.write(rowBuffer, 0, rowBuffer.length);
+        }
+        writtenRows += rows;
+    }
+
+    /**
+     * Finish the image data and write the end chunk. All the rows
+     * must be written before.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (writtenRows != height) {
+                throw new IOException("Only " + writtenRows + " of " + height + " rows are written.");
+            }
+            deflaterOut.finish();
+            deflaterOut.flush();
+            writeChunk("IEND", new byte[0], 0);
+            out.flush();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private void writeChunk(String type, byte[] data, int length) throws IOException {
+        byte[] typeBytes = type.getBytes("US-ASCII");
+        byte[] lengthBytes = new byte[4];
+        writeInt(lengthBytes, 0, length);
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(data, 0, length);
+        byte[] crcBytes = new byte[4];
+        writeInt(crcBytes, 0, (int) crc.getValue());
+
+        out.write(lengthBytes);
+        out.write(typeBytes);
+        out.write(data, 0, length);
+        out.write(crcBytes);
+    }
+
+    private static void writeInt(byte[] buffer, int offset, int value) {
+        buffer[offset] = (byte) (value >>> 24);
+        buffer[offset + 1] = (byte) (value >>> 16);
+        buffer[offset + 2] = (byte) (value >>> 8);
+        buffer[offset + 3] = (byte) value;
+    }
+
+    /**
+     * Collects the compressed data, and writes it as IDAT chunks.
+     */
+    private final class IdatOutputStream extends OutputStream {
+        private final byte[] buffer = new byte[IDAT_SIZE];
+        private int count;
+
+        @Override
+        public void write(int b) throws IOException {
+            if (count == buffer.length) {
+                flush();
+            }
+            buffer[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (count == buffer.length) {
+                    flush();
+                }
+                int size = Math.min(len, buffer.length - count);
+                System.arraycopy(b, off, buffer, count, size);
+                count += size;
+                off += size;
+                len -= size;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (count > 0) {
+                writeChunk("IDAT", buffer, count);
+                count = 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ *    Copyright 2018 Yizheng Huang
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package com.watermark.androidwm.utils;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Paint;
+import android.util.LruCache;
+import androidx.annotation.NonNull;
+
+import com.watermark.androidwm.bean.WatermarkText;
+
+import static com.watermark.androidwm.utils.BitmapUtils.textAsBitmap;
+
+/**
+ * A bounded cache of the rendered {@link WatermarkText} bitmaps, so the
+ * same text is rasterized only once per process. The key contains every
+ * visual property of the text and the display density.
+ * <p>
+ * The cached bitmaps are immutable and shared, they must not be recycled.
+ *
+ * @author huangyz0918 (huangyz0918@gmail.com)
+ */
+public final class TextBitmapCache {
+    private static final int DEFAULT_MAX_SIZE = 4 * 1024 * 1024;
+    private static final TextBitmapCache INSTANCE = new TextBitmapCache(DEFAULT_MAX_SIZE);
+
+    private final LruCache<Key, Bitmap> cache;
+
+    private TextBitmapCache(int maxSize) {
+        cache = new LruCache<Key, Bitmap>(maxSize) {
+            @Override
+            protected int sizeOf(Key key, Bitmap value) {
+                return value.getByteCount();
+            }
+        };
+    }
+
+    /**
+     * to get the shared instance of the cache.
+     *
+     * @return instance of {@link TextBitmapCache}
+     */
+    public static TextBitmapCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Get the rendered bitmap of a {@link WatermarkText}, the text will be
+     * rasterized by {@link BitmapUtils#textAsBitmap(Context, WatermarkText)}
+     * if it is not in the cache.
+     *
+     * @return {@link Bitmap} the immutable text bitmap.
+     */
+    @NonNull
+    public Bitmap get(@NonNull Context context, @NonNull WatermarkText watermarkText) {
+        Key key = new Key(watermarkText, context.getResources().getDisplayMetrics().density);
+        Bitmap bitmap = cache.get(key);
+        if (bitmap == null || bitmap.isRecycled()) {
+            Bitmap rendered = textAsBitmap(context, watermarkText);
+            bitmap = rendered.copy(Bitmap.Config.ARGB_8888, false);
+            BitmapPool.getInstance().put(rendered);
+            cache.put(key, bitmap);
+        }
+        return bitmap;
+    }
+
+    /**
+     * Set the max size of the cache in bytes.
+     */
+    public void setMaxSize(int maxSize) {
+        cache.resize(maxSize);
+    }
+
+    public void clear() {
+        cache.evictAll();
+    }
+
+    /**
+     * The key of a rendered text, all the attributes are copied since
+     * {@link WatermarkText} is mutable.
+     */
+    private static final class Key {
+        private final String text;
+        private final double size;
+        private final int color;
+        private final int alpha;
+        private final Paint.Style style;
+        private final float shadowBlurRadius;
+        private final float shadowXOffset;
+        private final float shadowYOffset;
+        private final int shadowColor;
+        private final int typeFaceId;
+        private final int backgroundColor;
+        private final float density;
+
+        Key(WatermarkText watermarkText, float density) {
+            this.text = watermarkText.getText();
+            this.size = watermarkText.getTextSize();
+            this.color = watermarkText.getTextColor();
+            this.alpha = watermarkText.getTextAlpha();
+            this.style = watermarkText.getTextStyle();
+            this.shadowBlurRadius = watermarkText.getTextShadowBlurRadius();
+            this.shadowXOffset = watermarkText.getTextShadowXOffset();
+            this.shadowYOffset = watermarkText.getTextShadowYOffset();
+            this.shadowColor = watermarkText.getTextShadowColor();
+            this.typeFaceId = watermarkText.getTextFont();
+            this.backgroundColor = watermarkText.getBackgroundColor();
+            this.density = density;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return Double.compare(key.size, size) == 0
+                    && color == key.color
+                    && alpha == key.alpha
+                    && Float.compare(key.shadowBlurRadius, shadowBlurRadius) == 0
+                    && Float.compare(key.shadowXOffset, shadowXOffset) == 0
+                    && Float.compare(key.shadowYOffset, shadowYOffset) == 0
+                    && shadowColor == key.shadowColor
+                    && typeFaceId == key.typeFaceId
+                    && backgroundColor == key.backgroundColor
+                    && Float.compare(key.density, density) == 0
+                    && style == key.style
+                    && text.equals(key.text);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = text.hashCode();
+            long temp = Double.doubleToLongBits(size);
+            result = 31 * result + (int) (temp ^ (temp >>> 32));
+            result = 31 * result + color;
+            result = 31 * result + alpha;
+            result = 31 * result + (style != null ? style.hashCode() : 0);
+            result = 31 * result + Float.floatToIntBits(shadowBlurRadius);
+            result = 31 * result + Float.floatToIntBits(shadowXOffset);
+            result = 31 * result + Float.floatToIntBits(shadowYOffset);
+            result = 31 * result + shadowColor;
+            result = 31 * result + typeFaceId;
+            result = 31 * result + backgroundColor;
+            result = 31 * result + Float.floatToIntBits(density);
+            return result;
+        }
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ *    Copyright 2018 Yizheng Huang
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package com.watermark.androidwm.utils;
+
+import android.graphics.Bitmap;
+import android.graphics.Matrix;
+import android.util.LruCache;
+import androidx.annotation.NonNull;
+
+import java.lang.ref.WeakReference;
+
+import static com.watermark.androidwm.utils.BitmapUtils.transformBitmap;
+
+/**
+ * A bounded cache of the scaled and rotated watermark bitmaps. The key is
+ * the identity of the source bitmap, the target width, the size fraction
+ * and the rotation angle, so a watermark image is resampled and rotated
+ * only once per distinct geometry.
+ * <p>
+ * The cached bitmaps are immutable and shared, they must not be recycled.
+ *
+ * @author huangyz0918 (huangyz0918@gmail.com)
+ */
+public final class TransformBitmapCache {
+    private static final int DEFAULT_MAX_SIZE = 8 * 1024 * 1024;
+    private static final TransformBitmapCache INSTANCE = new TransformBitmapCache(DEFAULT_MAX_SIZE);
+
+    private final LruCache<Key, Bitmap> cache;
+
+    private TransformBitmapCache(int maxSize) {
+        cache = new LruCache<Key, Bitmap>(maxSize) {
+            @Override
+            protected int sizeOf(Key key, Bitmap value) {
+                return value.getByteCount();
+            }
+        };
+    }
+
+    /**
+     * to get the shared instance of the cache.
+     *
+     * @return instance of {@link TransformBitmapCache}
+     */
+    public static TransformBitmapCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Get the watermark bitmap scaled to {@code size * targetWidth} and
+     * rotated around its center, in a single filtered resampling.
+     *
+     * @param source      the watermark bitmap.
+     * @param size        the proportion of the target width, from 0 to 1.
+     * @param targetWidth the width of the background image.
+     * @param rotation    the rotation angle.
+     * @return {@link Bitmap} the immutable transformed bitmap.
+     */
+    @NonNull
+    public Bitmap get(@NonNull Bitmap source, float size, int targetWidth, int rotation) {
+        Key key = new Key(source, size, targetWidth, rotation);
+        Bitmap bitmap = cache.get(key);
+        if (bitmap == null || bitmap.isRecycled()) {
+            float scale = (targetWidth * size) / source.getWidth();
+            Matrix matrix = new Matrix();
+            matrix.setScale(scale, scale);
+            matrix.postRotate(rotation, source.getWidth() * scale / 2, source.getHeight() * scale / 2);
+            bitmap = cacheCopy(key, transformBitmap(source, matrix));
+        }
+        return bitmap;
+    }
+
+    /**
+     * Set the max size of the cache in bytes.
+     */
+    public void setMaxSize(int maxSize) {
+        cache.resize(maxSize);
+    }
+
+    public void clear() {
+        cache.evictAll();
+    }
+
+    private Bitmap cacheCopy(Key key, Bitmap transformed) {
+        Bitmap bitmap = transformed.copy(transformed.getConfig(), false);
+        BitmapPool.getInstance().put(transformed);
+        cache.put(key, bitmap);
+        return bitmap;
+    }
+
+    /**
+     * The key of a transformed bitmap. The source is only weakly referenced,
+     * the entries of a collected source will never be hit again and will be
+     * evicted by the LRU order.
+     */
+    private static final class Key {
+        private final WeakReference<Bitmap> source;
+        private final int sourceHash;
+        private final int generationId;
+        private final float size;
+        private final int targetWidth;
+        private final int rotation;
+
+        Key(Bitmap source, float size, int targetWidth, int rotation) {
+            this.source = new WeakReference<>(source);
+            this.sourceHash = System.identityHashCode(source);
+            this.generationId = source.getGenerationId();
+            this.size = size;
+            this.targetWidth = targetWidth;
+            this.rotation = rotation;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            Bitmap bitmap = source.get();
+            return bitmap != null
+                    && bitmap == key.source.get()
+                    && generationId == key.generationId
+                    && Float.compare(key.size, size) == 0
+                    && targetWidth == key.targetWidth
+                    && rotation == key.rotation;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = sourceHash;
+            result = 31 * result + generationId;
+            result = 31 * result + Float.floatToIntBits(size);
+            result = 31 * result + targetWidth;
+            result = 31 * result + rotation;
+            return result;
+        }
+    }
+}
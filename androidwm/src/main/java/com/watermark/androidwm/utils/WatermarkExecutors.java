@@ -0,0 +1,128 @@
+/*
+ *    Copyright 2018 Yizheng Huang
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package com.watermark.androidwm.utils;
+
+import android.os.Handler;
+import android.os.Looper;
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The default executors of the invisible watermark jobs. The jobs run
+ * on a shared pool with one thread per processor, so the independent
+ * jobs run in parallel, and the results are delivered on the main thread.
+ *
+ * @author huangyz0918 (huangyz0918@gmail.com)
+ */
+public final class WatermarkExecutors {
+    private static volatile ExecutorService workerExecutor;
+    private static volatile Executor mainThreadExecutor;
+    private static volatile ForkJoinPool stripePool;
+
+    private WatermarkExecutors() {
+    }
+
+    /**
+     * The shared pool of the background jobs, the threads are daemon
+     * threads, so the pool never needs to be shut down.
+     */
+    @NonNull
+    public static Executor getWorkerExecutor() {
+        if (workerExecutor == null) {
+            synchronized (WatermarkExecutors.class) {
+                if (workerExecutor == null) {
+                    workerExecutor = Executors.newFixedThreadPool(
+                            Runtime.getRuntime().availableProcessors(), new WorkerThreadFactory());
+                }
+            }
+        }
+        return workerExecutor;
+    }
+
+    /**
+     * The shared fork-join pool of the row stripes of a single job, the
+     * LSB embedding and detection split the image over it. Its threads are
+     * daemon threads as well.
+     */
+    @NonNull
+    public static ForkJoinPool getStripePool() {
+        if (stripePool == null) {
+            synchronized (WatermarkExecutors.class) {
+                if (stripePool == null) {
+                    stripePool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+                }
+            }
+        }
+        return stripePool;
+    }
+
+    /**
+     * The executor which posts the runnables to the main looper.
+     */
+    @NonNull
+    public static Executor getMainThreadExecutor() {
+        if (mainThreadExecutor == null) {
+            synchronized (WatermarkExecutors.class) {
+                if (mainThreadExecutor == null) {
+                    final Handler handler = new Handler(Looper.getMainLooper());
+                    mainThreadExecutor = new Executor() {
+                        @Override
+                        public void execute(@NonNull Runnable command) {
+                            handler.post(command);
+                        }
+                    };
+                }
+            }
+        }
+        return mainThreadExecutor;
+    }
+
+    /**
+     * Run the runnable directly in the calling thread.
+     */
+    @NonNull
+    public static Executor getDirectExecutor() {
+        return DirectExecutor.INSTANCE;
+    }
+
+    private enum DirectExecutor implements Executor {
+        INSTANCE;
+
+        @Override
+        public void execute(@NonNull Runnable command) {
+            command.run();
+        }
+    }
+
+    private static final class WorkerThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(@NonNull Runnable runnable) {
+            Thread thread = new Thread(runnable, "androidwm-worker-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            thread.setPriority(Thread.NORM_PRIORITY - 1);
+            return thread;
+        }
+    }
+}
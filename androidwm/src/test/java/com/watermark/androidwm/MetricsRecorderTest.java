@@ -0,0 +1,59 @@
+package com.watermark.androidwm;
+
+import com.watermark.androidwm.listener.WatermarkMetricsListener;
+import com.watermark.androidwm.listener.WatermarkMetricsListener.Stage;
+import com.watermark.androidwm.utils.MetricsRecorder;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The unit tests for the stage metrics recorder.
+ *
+ * @author huangyz0918 (huangyz0918@gmail.com)
+ */
+public class MetricsRecorderTest {
+
+    @Test
+    public void testNoListener() {
+        MetricsRecorder recorder = MetricsRecorder.of(null);
+        assertSame(MetricsRecorder.NONE, recorder);
+        assertFalse(recorder.isEnabled());
+        assertEquals(0, recorder.start());
+    }
+
+    @Test
+    public void testReportStages() {
+        final List<Stage> stages = new ArrayList<>();
+        final List<Long> times = new ArrayList<>();
+        MetricsRecorder recorder = MetricsRecorder.of(new WatermarkMetricsListener() {
+            @Override
+            public void onStage(Stage stage, long wallTimeNanos, long allocatedBytes,
+                                int width, int height, int payloadSize) {
+                stages.add(stage);
+                times.add(wallTimeNanos);
+                assertEquals(64, width);
+                assertEquals(32, height);
+            }
+        });
+        assertTrue(recorder.isEnabled());
+
+        MetricsRecorder.Sample decode = new MetricsRecorder.Sample(Stage.DECODE,
+                System.nanoTime(), 64 * 32 * 4, 64, 32, 0);
+        long startTime = recorder.start();
+        recorder.end(Stage.EMBED, startTime, 0, 64, 32, 100);
+        recorder.report(decode);
+
+        assertEquals(2, stages.size());
+        assertEquals(Stage.EMBED, stages.get(0));
+        assertEquals(Stage.DECODE, stages.get(1));
+        assertTrue(times.get(0) >= 0 && times.get(1) >= 0);
+    }
+}
@@ -0,0 +1,474 @@
+package com.watermark.androidwm;
+
+import com.watermark.androidwm.core.BitPlaneDetector;
+import com.watermark.androidwm.core.BitPlaneEmbedder;
+import com.watermark.androidwm.core.BitPlaneLayout;
+import com.watermark.androidwm.core.ImagePayload;
+import com.watermark.androidwm.core.LSBDetector;
+import com.watermark.androidwm.core.LSBEmbedder;
+import com.watermark.androidwm.core.PayloadCodec;
+import com.watermark.androidwm.core.PayloadHeader;
+import com.watermark.androidwm.core.PixelBuffer;
+import com.watermark.androidwm.core.ProgressMonitor;
+import com.watermark.androidwm.core.RowSource;
+import com.watermark.androidwm.core.Stripes;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * The unit tests for the platform independent pixel core.
+ *
+ * @author huangyz0918 (huangyz0918@gmail.com)
+ */
+public class PixelCoreTest {
+
+    private static PixelBuffer randomBuffer(int width, int height, long seed) {
+        Random random = new Random(seed);
+        PixelBuffer buffer = PixelBuffer.allocate(width, height);
+        for (int i = 0; i < buffer.getPixels().length; i++) {
+            buffer.getPixels()[i] = random.nextInt();
+        }
+        return buffer;
+    }
+
+    @Test
+    public void testPayloadCodec() {
+        assertEquals("01000001", PayloadCodec.stringToBinary("A"));
+        assertEquals("AndroidWM 水印", PayloadCodec.binaryToString(PayloadCodec.stringToBinary("AndroidWM 水印")));
+        assertArrayEquals(new int[]{2, 3, 0, 1}, PayloadCodec.stringToDigits("2301"));
+    }
+
+    @Test
+    public void testLSBTextRoundTrip() {
+        PixelBuffer buffer = randomBuffer(64, 48, 1);
+        int[] payload = LSBEmbedder.createPayload("Hello, watermark!", false);
+        assertTrue(LSBEmbedder.embed(buffer, payload, buffer));
+
+        LSBDetector.Result result = LSBDetector.detect(buffer);
+        assertFalse(result.isImage());
+        assertEquals("Hello, watermark!", result.getWatermarkString());
+    }
+
+    @Test
+    public void testLSBRowWriter() {
+        // a row buffer fed one row at a time gives the same result as the whole buffer.
+        PixelBuffer source = randomBuffer(33, 21, 6);
+        int[] payload = LSBEmbedder.createPayload("rows", false);
+        PixelBuffer expected = PixelBuffer.allocate(33, 21);
+        assertTrue(LSBEmbedder.embed(source, payload, expected));
+
+        LSBEmbedder.Writer writer = LSBEmbedder.newWriter(payload, source.getPixelCount());
+        int[] row = new int[33];
+        int[] actual = new int[33 * 21];
+        for (int y = 0; y < 21; y++) {
+            System.arraycopy(source.getPixels(), y * 33, row, 0, 33);
+            writer.writeRow(row, 0, row, 0, 33);
+            System.arraycopy(row, 0, actual, y * 33, 33);
+        }
+        assertArrayEquals(expected.toArray(), actual);
+        assertNull(LSBEmbedder.newWriter(payload, 2));
+    }
+
+    @Test
+    public void testLSBScannerStopsEarly() {
+        PixelBuffer buffer = randomBuffer(64, 64, 7);
+        assertTrue(LSBEmbedder.embed(buffer, LSBEmbedder.createPayload("early", false), buffer));
+
+        // the 48 digits of the payload are in the first row.
+        LSBDetector.Scanner scanner = new LSBDetector.Scanner();
+        scanner.readRow(buffer.getPixels(), 0, 64);
+        assertTrue(scanner.isFinished());
+        assertEquals("early", scanner.getResult().getWatermarkString());
+
+        // a prefix which is not followed by a suffix is skipped.
+        int[] digits = PayloadCodec.stringToDigits("232301034000"
+                + "1212" + PayloadCodec.stringToBinary("ok") + "3434");
+        int[] row = new int[digits.length / 4];
+        for (int i = 0; i < row.length; i++) {
+            row[i] = PixelBuffer.argb(250 + digits[4 * i], 100 + digits[4 * i + 1],
+                    110 + digits[4 * i + 2], 200 + digits[4 * i + 3]);
+        }
+        scanner = new LSBDetector.Scanner();
+        scanner.readRow(row, 0, row.length);
+        assertTrue(scanner.getResult().isImage());
+        assertEquals("ok", scanner.getResult().getWatermarkString());
+    }
+
+    @Test
+    public void testLSBMajorityVote() {
+        PixelBuffer buffer = randomBuffer(64, 64, 10);
+        assertTrue(LSBEmbedder.embed(buffer, LSBEmbedder.createPayload("vote", false), buffer));
+
+        // flip the 6th bit of the first copy, it is the red channel of the 3rd pixel.
+        int color = buffer.getPixels()[2];
+        int red = PixelBuffer.red(color);
+        red = red / 10 * 10 + (red % 10 == 1 ? 0 : 1);
+        buffer.getPixels()[2] = PixelBuffer.argb(PixelBuffer.alpha(color), red,
+                PixelBuffer.green(color), PixelBuffer.blue(color));
+        assertFalse("vote".equals(LSBDetector.detect(buffer).getWatermarkString()));
+        assertEquals(1, LSBDetector.detect(buffer, 1, ProgressMonitor.NONE).getConfidence(), 0);
+
+        // the 4 copies of 32 bits have one wrong vote.
+        LSBDetector.Result result = LSBDetector.detect(buffer, 2, ProgressMonitor.NONE);
+        assertEquals("vote", result.getWatermarkString());
+        assertEquals(127.0 / 128, result.getConfidence(), 1e-9);
+    }
+
+    @Test
+    public void testLSBEveryCopyDamaged() {
+        PixelBuffer buffer = randomBuffer(64, 64, 11);
+        assertTrue(LSBEmbedder.embed(buffer, LSBEmbedder.createPayload("vote", false), buffer));
+
+        // a copy has 4 + 32 + 4 digits, every one of the 409 copies gets a
+        // damaged flag digit and a flipped bit.
+        for (int copy = 0; copy < 409; copy++) {
+            setDigit(buffer, copy * 40 + copy % 4, 7);
+            int bit = copy * 40 + 4 + copy % 32;
+            setDigit(buffer, bit, 1 - digitAt(buffer, bit));
+        }
+        assertNull(LSBDetector.detect(buffer));
+
+        LSBDetector.Result result = LSBDetector.detect(buffer, 2, ProgressMonitor.NONE);
+        assertEquals("vote", result.getWatermarkString());
+        assertFalse(result.isImage());
+        assertTrue(result.getConfidence() < 1);
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            LSBDetector.Result parallel = LSBDetector.detect(buffer, 2, pool, ProgressMonitor.NONE);
+            assertEquals("vote", parallel.getWatermarkString());
+            assertEquals(result.getConfidence(), parallel.getConfidence(), 0);
+
+            // all the copies are voted.
+            parallel = LSBDetector.detect(buffer, 1000, pool, ProgressMonitor.NONE);
+            assertEquals("vote", parallel.getWatermarkString());
+            assertEquals(1 - 409.0 / (409 * 32), parallel.getConfidence(), 1e-9);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testLSBCropped() {
+        PixelBuffer buffer = randomBuffer(64, 64, 12);
+        assertTrue(LSBEmbedder.embed(buffer, LSBEmbedder.createPayload("vote", false), buffer));
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            // the first copy of a cropped image doesn't start at the first channel.
+            for (int top : new int[]{1, 3, 8, 21}) {
+                PixelBuffer cropped = new PixelBuffer(buffer.getPixels(), top * 64, 64, 64, 64 - top);
+                assertEquals("vote", LSBDetector.detect(cropped).getWatermarkString());
+                assertEquals("vote", LSBDetector.detect(cropped, 2, ProgressMonitor.NONE).getWatermarkString());
+                LSBDetector.Result result = LSBDetector.detect(cropped, 2, pool, ProgressMonitor.NONE);
+                assertEquals("vote", result.getWatermarkString());
+                assertEquals(1, result.getConfidence(), 0);
+            }
+
+            // every row is cut, so the copies are found again in every row.
+            PixelBuffer cropped = new PixelBuffer(buffer.getPixels(), 8, 64, 56, 64);
+            assertEquals("vote", LSBDetector.detect(cropped, 2, ProgressMonitor.NONE).getWatermarkString());
+            LSBDetector.Result result = LSBDetector.detect(cropped, 1000, pool, ProgressMonitor.NONE);
+            assertEquals("vote", result.getWatermarkString());
+            assertEquals(1, result.getConfidence(), 0);
+
+            // there is no copy with matching flags.
+            assertNull(LSBDetector.detect(randomBuffer(64, 64, 13), 2, pool, ProgressMonitor.NONE));
+            assertNull(LSBDetector.detect(PixelBuffer.allocate(64, 64), 2, pool, ProgressMonitor.NONE));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static int digitAt(PixelBuffer buffer, int channel) {
+        int digit = (buffer.getPixels()[channel / 4] >>> (24 - 8 * (channel % 4)) & 0xFF) % 10;
+        return digit == 9 ? 0 : digit;
+    }
+
+    private static void setDigit(PixelBuffer buffer, int channel, int digit) {
+        int shift = 24 - 8 * (channel % 4);
+        int color = buffer.getPixels()[channel / 4];
+        int value = (color >>> shift & 0xFF) / 10 * 10 + digit;
+        if (value > 255) {
+            value -= 10;
+        }
+        buffer.getPixels()[channel / 4] = color & ~(0xFF << shift) | value << shift;
+    }
+
+    @Test
+    public void testLSBWithStride() {
+        // a 20x10 window in the middle of a 32x16 raster.
+        PixelBuffer raster = randomBuffer(32, 16, 2);
+        int[] outside = raster.toArray();
+        PixelBuffer window = new PixelBuffer(raster.getPixels(), 3 * 32 + 5, 32, 20, 10);
+        PixelBuffer target = PixelBuffer.allocate(20, 10);
+
+        int[] payload = LSBEmbedder.createPayload("stride", true);
+        assertTrue(LSBEmbedder.embed(window, payload, target));
+        assertArrayEquals(outside, raster.toArray());
+
+        LSBDetector.Result result = LSBDetector.detect(target);
+        assertTrue(result.isImage());
+        assertEquals("stride", result.getWatermarkString());
+    }
+
+    @Test
+    public void testLSBNotEnoughPixels() {
+        PixelBuffer buffer = randomBuffer(2, 2, 3);
+        assertFalse(LSBEmbedder.embed(buffer, LSBEmbedder.createPayload("too long", false), buffer));
+        assertNull(LSBDetector.detect(PixelBuffer.allocate(4, 4)));
+    }
+
+    @Test
+    public void testBitPlaneRoundTrip() {
+        for (int bits = 1; bits <= 8; bits++) {
+            for (int channels : new int[]{BitPlaneLayout.CHANNELS_RGB, BitPlaneLayout.CHANNELS_ARGB,
+                    BitPlaneLayout.CHANNEL_GREEN | BitPlaneLayout.CHANNEL_ALPHA}) {
+                BitPlaneLayout layout = new BitPlaneLayout(bits, channels);
+                PixelBuffer source = randomBuffer(40, 30, bits);
+                PixelBuffer target = PixelBuffer.allocate(40, 30);
+                byte[] payload = BitPlaneEmbedder.createPayload("AndroidWM 水印 " + bits, false);
+                assertTrue(BitPlaneEmbedder.embed(source, payload, target, layout));
+
+                // only the low bits of the chosen channels are changed.
+                int mask = 0;
+                for (int channel = 0; channel < 4; channel++) {
+                    if ((channels & (1 << channel)) != 0) {
+                        mask |= ((1 << bits) - 1) << (channel * 8);
+                    }
+                }
+                for (int i = 0; i < source.getPixelCount(); i++) {
+                    assertEquals(0, (source.getPixels()[i] ^ target.getPixels()[i]) & ~mask);
+                }
+
+                LSBDetector.Result result = BitPlaneDetector.detect(target, layout);
+                assertFalse(result.isImage());
+                assertEquals("AndroidWM 水印 " + bits, result.getWatermarkString());
+            }
+        }
+    }
+
+    @Test
+    public void testBitPlaneCapacity() {
+        // 10 pixels hold 3 bytes with one bit of RGB, and 30 bytes with 8 bits.
+        assertEquals(3, BitPlaneLayout.DEFAULT.getCapacity(10));
+        assertEquals(30, new BitPlaneLayout(8, BitPlaneLayout.CHANNELS_RGB).getCapacity(10));
+
+        PixelBuffer buffer = randomBuffer(4, 4, 5);
+        byte[] payload = BitPlaneEmbedder.createPayload("image", true);
+        assertFalse(BitPlaneEmbedder.embed(buffer, payload, buffer, BitPlaneLayout.DEFAULT));
+        BitPlaneLayout layout = new BitPlaneLayout(3, BitPlaneLayout.CHANNELS_ARGB);
+        assertTrue(BitPlaneEmbedder.embed(buffer, payload, buffer, layout));
+        LSBDetector.Result result = BitPlaneDetector.detect(buffer, layout);
+        assertTrue(result.isImage());
+        assertEquals("image", result.getWatermarkString());
+
+        assertNull(BitPlaneDetector.detect(PixelBuffer.allocate(4, 4), layout));
+    }
+
+    @Test
+    public void testBitPlaneLargeImage() {
+        // a 12MP image, only the rows of the header and the data are read,
+        // the payload is in the first stripe.
+        final int width = 4032;
+        final int height = 3024;
+        final PixelBuffer top = randomBuffer(width, Stripes.STRIPE_HEIGHT, 13);
+        assertTrue(BitPlaneEmbedder.embed(top, BitPlaneEmbedder.createPayload("12MP", false), top,
+                BitPlaneLayout.DEFAULT));
+        final AtomicInteger rowCount = new AtomicInteger();
+        RowSource rows = new RowSource() {
+            @Override
+            public int getWidth() {
+                return width;
+            }
+
+            @Override
+            public int getHeight() {
+                return height;
+            }
+
+            @Override
+            public void getRow(int y, int[] row) {
+                rowCount.incrementAndGet();
+                if (y < top.getHeight()) {
+                    System.arraycopy(top.getPixels(), y * width, row, 0, width);
+                } else {
+                    Arrays.fill(row, 0xFF808080);
+                }
+            }
+        };
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            LSBDetector.Result result = BitPlaneDetector.detect(rows, BitPlaneLayout.DEFAULT,
+                    pool, ProgressMonitor.NONE);
+            assertEquals("12MP", result.getWatermarkString());
+            assertEquals(1, rowCount.get());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testPayloadHeader() {
+        byte[] payload = BitPlaneEmbedder.createPayload("header", false);
+        assertEquals(PayloadHeader.SIZE + 6, payload.length);
+        PayloadHeader header = PayloadHeader.parse(payload);
+        assertEquals(PayloadHeader.TYPE_TEXT, header.getType());
+        assertEquals(6, header.getLength());
+        assertTrue(header.verify(payload, PayloadHeader.SIZE));
+
+        // a damaged data byte fails the CRC32, a damaged magic is not a header.
+        PixelBuffer buffer = randomBuffer(16, 16, 8);
+        assertTrue(BitPlaneEmbedder.embed(buffer, payload, buffer, BitPlaneLayout.DEFAULT));
+        buffer.getPixels()[(PayloadHeader.SIZE + 2) * 8 / 3] ^= 0x010101;
+        assertNull(BitPlaneDetector.detect(buffer, BitPlaneLayout.DEFAULT));
+        payload[0] = 0;
+        assertNull(PayloadHeader.parse(payload));
+    }
+
+    @Test
+    public void testImagePayload() {
+        // a black square with a transparent border, the compact bytes are
+        // far smaller than the 4 bytes of every pixel.
+        PixelBuffer image = PixelBuffer.allocate(32, 24);
+        for (int y = 4; y < 20; y++) {
+            for (int x = 4; x < 28; x++) {
+                image.setPixel(x, y, 0xFF000000);
+            }
+        }
+        byte[] argb = ImagePayload.encode(image, ImagePayload.Format.ARGB);
+        assertTrue(ImagePayload.isCompact(argb));
+        assertTrue(argb.length < image.getPixelCount());
+        assertArrayEquals(image.toArray(), ImagePayload.decode(argb).toArray());
+        assertArrayEquals(image.toArray(), ImagePayload.decode(
+                ImagePayload.encode(image, ImagePayload.Format.MONO)).toArray());
+
+        PixelBuffer gray = ImagePayload.decode(ImagePayload.encode(image, ImagePayload.Format.GRAY));
+        assertEquals(0xFFFFFFFF, gray.getPixel(0, 0));
+        assertEquals(0xFF000000, gray.getPixel(4, 4));
+
+        // the random pixels are kept exactly, through the LSB and the bit-plane payloads.
+        PixelBuffer random = randomBuffer(8, 8, 10);
+        byte[] data = ImagePayload.encode(random, ImagePayload.Format.ARGB);
+        PixelBuffer buffer = randomBuffer(128, 128, 11);
+        assertTrue(LSBEmbedder.embed(buffer, LSBEmbedder.createPayload(data, true), buffer));
+        LSBDetector.Result result = LSBDetector.detect(buffer);
+        assertTrue(result.isImage());
+        assertArrayEquals(random.toArray(), ImagePayload.decode(result.getData()).toArray());
+
+        buffer = randomBuffer(128, 128, 12);
+        assertTrue(BitPlaneEmbedder.embed(buffer, BitPlaneEmbedder.createPayload(data, true), buffer,
+                BitPlaneLayout.DEFAULT));
+        result = BitPlaneDetector.detect(buffer, BitPlaneLayout.DEFAULT);
+        assertArrayEquals(random.toArray(), ImagePayload.decode(result.getData()).toArray());
+
+        // the Base64 text of the older versions and the damaged bytes are not decoded.
+        assertFalse(ImagePayload.isCompact("iVBORw0KGgoAAAANSUhEUg".getBytes()));
+        argb[ImagePayload.HEADER_SIZE] ^= 0x55;
+        assertNull(ImagePayload.decode(Arrays.copyOf(argb, argb.length - 4)));
+    }
+
+    @Test
+    public void testParallelStripes() {
+        PixelBuffer source = randomBuffer(40, 100, 9);
+        int[] digits = LSBEmbedder.createPayload("parallel", false);
+        char[] chars = new char[1200];
+        Arrays.fill(chars, 'p');
+        byte[] bytes = BitPlaneEmbedder.createPayload(new String(chars), false);
+
+        PixelBuffer expectedDigits = PixelBuffer.allocate(40, 100);
+        assertTrue(LSBEmbedder.embed(source, digits, expectedDigits));
+        PixelBuffer expectedBits = PixelBuffer.allocate(40, 100);
+        assertTrue(BitPlaneEmbedder.embed(source, bytes, expectedBits, BitPlaneLayout.DEFAULT));
+
+        // the output is the same for any number of threads.
+        for (int threads = 1; threads <= 4; threads++) {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            PixelBuffer target = PixelBuffer.allocate(40, 100);
+            assertTrue(LSBEmbedder.embed(source, digits, target, pool, ProgressMonitor.NONE));
+            assertArrayEquals(expectedDigits.toArray(), target.toArray());
+
+            // a band of a few stripes at a time, as the bitmap is written.
+            int[] band = new int[threads * Stripes.STRIPE_HEIGHT * 40];
+            int[] banded = new int[40 * 100];
+            LSBEmbedder.Writer writer = LSBEmbedder.newWriter(digits, source.getPixelCount());
+            for (int top = 0; top < 100; top += threads * Stripes.STRIPE_HEIGHT) {
+                int rows = Math.min(100 - top, threads * Stripes.STRIPE_HEIGHT);
+                System.arraycopy(source.getPixels(), top * 40, band, 0, rows * 40);
+                PixelBuffer pixels = new PixelBuffer(band, 0, 40, 40, rows);
+                Stripes.writeRows(pixels, pixels, top, writer, pool, ProgressMonitor.NONE);
+                System.arraycopy(band, 0, banded, top * 40, rows * 40);
+            }
+            assertArrayEquals(expectedDigits.toArray(), banded);
+
+            assertTrue(BitPlaneEmbedder.embed(source, bytes, target, BitPlaneLayout.DEFAULT,
+                    pool, ProgressMonitor.NONE));
+            assertArrayEquals(expectedBits.toArray(), target.toArray());
+            assertEquals(new String(chars), BitPlaneDetector.detect(target, BitPlaneLayout.DEFAULT,
+                    pool, ProgressMonitor.NONE).getWatermarkString());
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testRgbaBytes() {
+        PixelBuffer buffer = randomBuffer(7, 5, 4);
+        ByteBuffer bytes = ByteBuffer.allocate(7 * 5 * 4);
+        buffer.toRgbaBytes(bytes);
+        assertEquals(PixelBuffer.red(buffer.getPixel(0, 0)), bytes.get(0) & 0xff);
+        assertEquals(PixelBuffer.alpha(buffer.getPixel(0, 0)), bytes.get(3) & 0xff);
+        assertArrayEquals(buffer.toArray(), PixelBuffer.fromRgbaBytes(bytes, 7, 5, 7 * 4).toArray());
+    }
+
+    private static ProgressMonitor recordTo(final List<Integer> progress, final int cancelAfter) {
+        return new ProgressMonitor() {
+            @Override
+            public boolean isCancelled() {
+                return progress.size() == cancelAfter;
+            }
+
+            @Override
+            public void onProgress(int completed, int total) {
+                assertEquals(3, total);
+                progress.add(completed);
+            }
+        };
+    }
+
+    @Test
+    public void testLSBProgress() {
+        PixelBuffer buffer = randomBuffer(64, 40, 5);
+        List<Integer> progress = new ArrayList<>();
+        assertTrue(LSBEmbedder.embed(buffer, LSBEmbedder.createPayload("progress", false), buffer,
+                recordTo(progress, -1)));
+        assertEquals(Arrays.asList(1, 2, 3), progress);
+    }
+
+    @Test
+    public void testLSBCancel() {
+        PixelBuffer buffer = randomBuffer(64, 40, 6);
+        List<Integer> progress = new ArrayList<>();
+        try {
+            LSBDetector.detect(buffer, recordTo(progress, 2));
+            fail("The detection is not cancelled.");
+        } catch (CancellationException e) {
+            assertEquals(Arrays.asList(1, 2), progress);
+        }
+    }
+}
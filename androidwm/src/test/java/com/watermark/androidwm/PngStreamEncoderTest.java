@@ -0,0 +1,57 @@
+package com.watermark.androidwm;
+
+import com.watermark.androidwm.utils.PngStreamEncoder;
+
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * The unit tests for the streaming PNG encoder used by the region pipeline.
+ *
+ * @author huangyz0918 (huangyz0918@gmail.com)
+ */
+public class PngStreamEncoderTest {
+
+    @Test
+    public void testEncodeInStrips() throws IOException {
+        int width = 37;
+        int height = 23;
+        int[] pixels = new int[width * height];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = (i * 7919) ^ (i << 13);
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (PngStreamEncoder encoder = new PngStreamEncoder(out, width, height)) {
+            // uneven strips, the last one is shorter.
+            for (int top = 0; top < height; top += 5) {
+                int rows = Math.min(5, height - top);
+                encoder.writeRows(pixels, top * width, width, rows);
+            }
+        }
+
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(width, image.getWidth());
+        assertEquals(height, image.getHeight());
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                assertEquals(pixels[y * width + x], image.getRGB(x, y));
+            }
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testMissingRows() throws IOException {
+        PngStreamEncoder encoder = new PngStreamEncoder(new ByteArrayOutputStream(), 4, 4);
+        encoder.writeRows(new int[16], 0, 4, 2);
+        encoder.close();
+    }
+}
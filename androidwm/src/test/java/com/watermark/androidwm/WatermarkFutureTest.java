@@ -0,0 +1,101 @@
+package com.watermark.androidwm;
+
+import com.watermark.androidwm.listener.BuildFinishListener;
+import com.watermark.androidwm.task.WatermarkFuture;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The unit tests for the executor based watermark jobs.
+ *
+ * @author huangyz0918 (huangyz0918@gmail.com)
+ */
+public class WatermarkFutureTest {
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private static BuildFinishListener<String> recordTo(final List<String> results) {
+        return new BuildFinishListener<String>() {
+            @Override
+            public void onSuccess(String object) {
+                results.add("success: " + object);
+            }
+
+            @Override
+            public void onFailure(String message) {
+                results.add("failure: " + message);
+            }
+        };
+    }
+
+    @Test
+    public void testDeliverResult() throws Exception {
+        List<String> results = new ArrayList<>();
+        WatermarkFuture<String> future = new WatermarkFuture<>(new Callable<String>() {
+            @Override
+            public String call() {
+                return "watermark";
+            }
+        }, recordTo(results), DIRECT).submit(DIRECT);
+
+        assertEquals("watermark", future.get());
+        assertEquals(1, results.size());
+        assertEquals("success: watermark", results.get(0));
+    }
+
+    @Test
+    public void testDeliverFailure() {
+        List<String> results = new ArrayList<>();
+        new WatermarkFuture<>(new Callable<String>() {
+            @Override
+            public String call() throws WatermarkException {
+                throw new WatermarkException("no watermark");
+            }
+        }, recordTo(results), DIRECT).submit(DIRECT);
+
+        assertEquals(1, results.size());
+        assertEquals("failure: no watermark", results.get(0));
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        List<String> results = new ArrayList<>();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            WatermarkFuture<String> future = new WatermarkFuture<>(new Callable<String>() {
+                @Override
+                public String call() throws InterruptedException {
+                    started.countDown();
+                    Thread.sleep(10000);
+                    return "watermark";
+                }
+            }, recordTo(results), DIRECT).submit(executor);
+
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            assertTrue(future.cancel(true));
+            assertTrue(future.isCancelled());
+        } finally {
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        }
+        assertTrue(results.isEmpty());
+    }
+}
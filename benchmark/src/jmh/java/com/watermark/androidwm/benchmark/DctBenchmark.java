@@ -0,0 +1,61 @@
+/*
+ *    Copyright 2018 Yizheng Huang
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package com.watermark.androidwm.benchmark;
+
+import com.watermark.androidwm.utils.FastDctFft;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * The benchmark of {@link FastDctFft}, on the channels of one row of a
+ * square image, which is the vector the frequency domain watermark works on.
+ *
+ * @author huangyz0918 (huangyz0918@gmail.com)
+ */
+@State(Scope.Thread)
+public class DctBenchmark {
+
+    @Param({"256", "1024", "4096"})
+    private int size;
+
+    private double[] source;
+    private double[] vector;
+
+    @Setup
+    public void setup() {
+        source = SyntheticImages.createVector(size * 4);
+        vector = new double[source.length];
+    }
+
+    @Benchmark
+    public double[] transform() {
+        System.arraycopy(source, 0, vector, 0, source.length);
+        FastDctFft.transform(vector);
+        return vector;
+    }
+
+    @Benchmark
+    public double[] inverseTransform() {
+        System.arraycopy(source, 0, vector, 0, source.length);
+        FastDctFft.inverseTransform(vector);
+        return vector;
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ *    Copyright 2018 Yizheng Huang
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package com.watermark.androidwm.benchmark;
+
+import com.watermark.androidwm.utils.Fft;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Arrays;
+
+/**
+ * The benchmark of {@link Fft#transform(double[], double[])}, the power of
+ * two lengths use the radix-2 transform and the others use Bluestein's.
+ *
+ * @author huangyz0918 (huangyz0918@gmail.com)
+ */
+@State(Scope.Thread)
+public class FftBenchmark {
+
+    @Param({"256", "1024", "4096", "255", "1000", "4095"})
+    private int length;
+
+    private double[] sourceReal;
+    private double[] real;
+    private double[] imag;
+
+    @Setup
+    public void setup() {
+        sourceReal = SyntheticImages.createVector(length);
+        real = new double[length];
+        imag = new double[length];
+    }
+
+    @Benchmark
+    public double[] transform() {
+        System.arraycopy(sourceReal, 0, real, 0, length);
+        Arrays.fill(imag, 0.0);
+        Fft.transform(real, imag);
+        return real;
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ *    Copyright 2018 Yizheng Huang
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package com.watermark.androidwm.benchmark;
+
+import com.watermark.androidwm.core.ImagePayload;
+import com.watermark.androidwm.core.LSBEmbedder;
+import com.watermark.androidwm.core.PixelBuffer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * The benchmark of the compact image payload, from the pixels of an image
+ * watermark to the LSB digits, and back to the pixels.
+ *
+ * @author huangyz0918 (huangyz0918@gmail.com)
+ */
+@State(Scope.Thread)
+public class ImagePayloadBenchmark {
+
+    @Param({"64", "256"})
+    private int size;
+
+    @Param({"ARGB", "GRAY", "MONO"})
+    private ImagePayload.Format format;
+
+    private PixelBuffer image;
+    private byte[] data;
+
+    @Setup
+    public void setup() {
+        image = SyntheticImages.create(size);
+        data = ImagePayload.encode(image, format);
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return ImagePayload.encode(image, format);
+    }
+
+    @Benchmark
+    public int[] createPayload() {
+        return LSBEmbedder.createPayload(ImagePayload.encode(image, format), true);
+    }
+
+    @Benchmark
+    public PixelBuffer decode() {
+        return ImagePayload.decode(data);
+    }
+}
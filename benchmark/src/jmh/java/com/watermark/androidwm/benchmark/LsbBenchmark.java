@@ -0,0 +1,84 @@
+/*
+ *    Copyright 2018 Yizheng Huang
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package com.watermark.androidwm.benchmark;
+
+import com.watermark.androidwm.core.LSBDetector;
+import com.watermark.androidwm.core.LSBEmbedder;
+import com.watermark.androidwm.core.PixelBuffer;
+import com.watermark.androidwm.core.ProgressMonitor;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * The benchmark of the LSB embed and detect loops, with a text watermark.
+ * The parallel embedding runs on a pool with one thread per processor.
+ *
+ * @author huangyz0918 (huangyz0918@gmail.com)
+ */
+@State(Scope.Thread)
+public class LsbBenchmark {
+
+    @Param({"256", "1024", "4096"})
+    private int size;
+
+    private PixelBuffer image;
+    private PixelBuffer output;
+    private PixelBuffer marked;
+    private int[] payload;
+    private ForkJoinPool pool;
+
+    @Setup
+    public void setup() {
+        image = SyntheticImages.create(size);
+        output = PixelBuffer.allocate(size, size);
+        marked = PixelBuffer.allocate(size, size);
+        payload = LSBEmbedder.createPayload(SyntheticImages.WATERMARK_TEXT, false);
+        pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        if (!LSBEmbedder.embed(image, payload, marked)) {
+            throw new IllegalStateException("The image is too small for the payload.");
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    public PixelBuffer embed() {
+        LSBEmbedder.embed(image, payload, output);
+        return output;
+    }
+
+    @Benchmark
+    public PixelBuffer embedParallel() {
+        LSBEmbedder.embed(image, payload, output, pool, ProgressMonitor.NONE);
+        return output;
+    }
+
+    @Benchmark
+    public LSBDetector.Result detect() {
+        return LSBDetector.detect(marked);
+    }
+}
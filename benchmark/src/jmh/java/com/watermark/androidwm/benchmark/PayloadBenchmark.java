@@ -0,0 +1,71 @@
+/*
+ *    Copyright 2018 Yizheng Huang
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package com.watermark.androidwm.benchmark;
+
+import com.watermark.androidwm.core.LSBEmbedder;
+import com.watermark.androidwm.core.PayloadCodec;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * The benchmark of the string and binary payload encoding.
+ *
+ * @author huangyz0918 (huangyz0918@gmail.com)
+ */
+@State(Scope.Thread)
+public class PayloadBenchmark {
+
+    @Param({"32", "1024", "32768"})
+    private int length;
+
+    private String text;
+    private String binary;
+
+    @Setup
+    public void setup() {
+        StringBuilder builder = new StringBuilder(length);
+        while (builder.length() < length) {
+            builder.append(SyntheticImages.WATERMARK_TEXT);
+        }
+        text = builder.substring(0, length);
+        binary = PayloadCodec.stringToBinary(text);
+    }
+
+    @Benchmark
+    public String stringToBinary() {
+        return PayloadCodec.stringToBinary(text);
+    }
+
+    @Benchmark
+    public String binaryToString() {
+        return PayloadCodec.binaryToString(binary);
+    }
+
+    @Benchmark
+    public int[] stringToDigits() {
+        return PayloadCodec.stringToDigits(binary);
+    }
+
+    @Benchmark
+    public int[] createPayload() {
+        return LSBEmbedder.createPayload(text, false);
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ *    Copyright 2018 Yizheng Huang
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package com.watermark.androidwm.benchmark;
+
+import com.watermark.androidwm.core.PixelBuffer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * The benchmark of the pixel conversions. {@link PixelBuffer#toChannelArray()}
+ * is the pure Java body of {@code BitmapUtils.pixel2ARGBArray}.
+ *
+ * @author huangyz0918 (huangyz0918@gmail.com)
+ */
+@State(Scope.Thread)
+public class PixelBenchmark {
+
+    @Param({"256", "1024", "4096"})
+    private int size;
+
+    private PixelBuffer image;
+
+    @Setup
+    public void setup() {
+        image = SyntheticImages.create(size);
+    }
+
+    @Benchmark
+    public int[] pixel2ARGBArray() {
+        return image.toChannelArray();
+    }
+
+    @Benchmark
+    public int[] toArray() {
+        return image.toArray();
+    }
+}
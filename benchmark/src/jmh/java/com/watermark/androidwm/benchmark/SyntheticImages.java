@@ -0,0 +1,54 @@
+/*
+ *    Copyright 2018 Yizheng Huang
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package com.watermark.androidwm.benchmark;
+
+import com.watermark.androidwm.core.PixelBuffer;
+
+import java.util.Random;
+
+/**
+ * The synthetic backgrounds of the benchmarks, opaque random pixels
+ * from a fixed seed, so every run measures the same input.
+ *
+ * @author huangyz0918 (huangyz0918@gmail.com)
+ */
+final class SyntheticImages {
+    static final String WATERMARK_TEXT = "AndroidWM benchmark watermark";
+    private static final long SEED = 20180901L;
+
+    private SyntheticImages() {
+    }
+
+    static PixelBuffer create(int size) {
+        Random random = new Random(SEED);
+        PixelBuffer buffer = PixelBuffer.allocate(size, size);
+        int[] pixels = buffer.getPixels();
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = 0xFF000000 | random.nextInt(0x1000000);
+        }
+        return buffer;
+    }
+
+    static double[] createVector(int length) {
+        Random random = new Random(SEED);
+        double[] vector = new double[length];
+        for (int i = 0; i < length; i++) {
+            vector[i] = random.nextInt(256);
+        }
+        return vector;
+    }
+}
@@ -25,7 +25,6 @@ import android.graphics.Color;
 import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
 import android.net.Uri;
-import android.os.AsyncTask;
 import android.os.Bundle;
 import android.os.Build;
 import android.os.Environment;
@@ -52,15 +51,22 @@ import com.bumptech.glide.load.DataSource;
 import com.bumptech.glide.load.engine.GlideException;
 import com.bumptech.glide.request.RequestListener;
 import com.bumptech.glide.request.target.Target;
-import com.watermark.androidwm.Watermark;
 import com.watermark.androidwm.WatermarkDetector;
 import com.watermark.androidwm.bean.WatermarkPosition;
 import com.watermark.androidwm.task.DetectionReturnValue;
 import com.watermark.androidwm.listener.BuildFinishListener;
+import com.watermark.androidwm.WatermarkBatch;
 import com.watermark.androidwm.WatermarkBuilder;
+import com.watermark.androidwm.WatermarkInputException;
+import com.watermark.androidwm.WatermarkTemplate;
+import com.watermark.androidwm.bean.BatchResult;
+import com.watermark.androidwm.listener.BatchProcessListener;
 import com.watermark.androidwm.bean.WatermarkImage;
 import com.watermark.androidwm.bean.WatermarkText;
 import com.watermark.androidwm.listener.DetectFinishListener;
+import com.watermark.androidwm.utils.BitmapPool;
+import com.watermark.androidwm.utils.BitmapUtils;
+import com.watermark.androidwm.utils.Constant;
 
 import timber.log.Timber;
 //import com.watermark.androidwm.utils.BitmapUtils;
@@ -73,6 +79,7 @@ import java.io.OutputStream;
 import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * This is the sample for library: androidwm.
@@ -598,8 +605,21 @@ public class MainActivity extends AppCompatActivity {
             }
         }
 
-        new BulkWatermarkTask(this, new ArrayList<>(uris), watermarkBitmap, mode_tile.isChecked())
-                .executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+        WatermarkTemplate template;
+        try {
+            template = new WatermarkTemplate.Builder(this)
+                    .loadWatermarkImage(createWatermarkImage(watermarkBitmap, false))
+                    .setTileMode(mode_tile.isChecked())
+                    .build();
+        } catch (WatermarkInputException e) {
+            Timber.e(e, "Failed to create the bulk watermark template");
+            return;
+        }
+
+        progressBar.setVisibility(View.VISIBLE);
+        final Context appContext = getApplicationContext();
+        new WatermarkBatch<Uri>(template, uri -> decodeBitmapFromUri(appContext, uri))
+                .process(new ArrayList<>(uris), new BulkWatermarkListener(this));
     }
 
     private void onBulkWatermarkCompleted(int successCount, int totalCount) {
@@ -609,112 +629,56 @@ public class MainActivity extends AppCompatActivity {
                 .show();
     }
 
-    private Bitmap decodeBitmapFromUri(Uri uri) {
-        try (InputStream inputStream = getContentResolver().openInputStream(uri)) {
-            if (inputStream == null) {
-                return null;
-            }
-            return BitmapFactory.decodeStream(inputStream);
+    private static Bitmap decodeBitmapFromUri(Context context, Uri uri) {
+        try {
+            // decode close to the size the template resizes to, not the full photo.
+            return BitmapUtils.decodeSampledBitmap(context, uri, Constant.MAX_IMAGE_SIZE);
         } catch (IOException e) {
             Timber.e(e, "Failed to decode background image for bulk watermarking");
             return null;
         }
     }
 
-    private static class BulkWatermarkTask extends AsyncTask<Void, Void, BulkResult> {
+    private static class BulkWatermarkListener implements BatchProcessListener<Uri> {
         private final WeakReference<MainActivity> activityReference;
-        private final List<Uri> backgroundUris;
-        private final Bitmap watermarkBitmap;
-        private final boolean tileMode;
+        private final Context appContext;
+        // the items are saved on the batch workers, concurrently.
+        private final AtomicInteger failedSaveCount = new AtomicInteger();
 
-        BulkWatermarkTask(MainActivity activity, List<Uri> backgroundUris, Bitmap watermarkBitmap, boolean tileMode) {
+        BulkWatermarkListener(MainActivity activity) {
             this.activityReference = new WeakReference<>(activity);
-            this.backgroundUris = backgroundUris;
-            this.watermarkBitmap = watermarkBitmap;
-            this.tileMode = tileMode;
+            this.appContext = activity.getApplicationContext();
         }
 
         @Override
-        protected void onPreExecute() {
-            MainActivity activity = activityReference.get();
-            if (activity != null) {
-                activity.progressBar.setVisibility(View.VISIBLE);
-            }
-        }
-
-        @Override
-        protected BulkResult doInBackground(Void... voids) {
-            MainActivity activity = activityReference.get();
-            if (activity == null) {
-                return new BulkResult(0, backgroundUris.size());
-            }
-
-            int successCount = 0;
-            for (Uri uri : backgroundUris) {
-                if (isCancelled()) {
-                    break;
-                }
-                Bitmap background = activity.decodeBitmapFromUri(uri);
-                if (background == null) {
-                    continue;
-                }
-
-                WatermarkImage watermarkImage = activity.createWatermarkImage(watermarkBitmap, false);
-                if (watermarkImage == null) {
-                    continue;
-                }
-
-                try {
-                    Watermark watermark = WatermarkBuilder
-                            .create(activity, background)
-                            .setTileMode(tileMode)
-                            .loadWatermarkImage(watermarkImage)
-                            .getWatermark();
-                    Bitmap output = watermark.getOutputImage();
-                    if (output != null) {
-                        if (saveBitmapToGallery(activity, output, createOutputFileName())) {
-                            successCount++;
-                        }
-                        output.recycle();
-                    }
-                } catch (Exception e) {
-                    Timber.e(e, "Failed to create watermark for bulk image");
-                } finally {
-                    background.recycle();
-                }
+        public void onItemSuccess(int index, Uri input, Bitmap output) {
+            if (!saveBitmapToGallery(appContext, output, createOutputFileName())) {
+                Timber.w("Failed to save bulk image %s", input);
+                failedSaveCount.incrementAndGet();
             }
-
-            return new BulkResult(successCount, backgroundUris.size());
+            // the output bitmap can be reused by the next image.
+            BitmapPool.getInstance().put(output);
         }
 
         @Override
-        protected void onPostExecute(BulkResult result) {
-            MainActivity activity = activityReference.get();
-            if (activity != null) {
-                activity.progressBar.setVisibility(View.GONE);
-                activity.onBulkWatermarkCompleted(result.successCount, result.totalCount);
-            }
+        public void onItemFailure(int index, Uri input, String message) {
+            Timber.e("Failed to create watermark for bulk image: %s", message);
         }
 
         @Override
-        protected void onCancelled() {
+        public void onFinish(BatchResult result) {
             MainActivity activity = activityReference.get();
             if (activity != null) {
-                activity.progressBar.setVisibility(View.GONE);
+                // only the saved images count as a success.
+                int savedCount = result.getSuccessCount() - failedSaveCount.get();
+                activity.runOnUiThread(() -> {
+                    activity.progressBar.setVisibility(View.GONE);
+                    activity.onBulkWatermarkCompleted(savedCount, result.getTotalCount());
+                });
             }
         }
     }
 
-    private static class BulkResult {
-        final int successCount;
-        final int totalCount;
-
-        BulkResult(int successCount, int totalCount) {
-            this.successCount = successCount;
-            this.totalCount = totalCount;
-        }
-    }
-
     private void loadDefaultWatermark() {
         watermarkBitmap = BitmapFactory.decodeResource(getResources(),
                 R.drawable.test_watermark);